@@ -0,0 +1,43 @@
+package dev.windfury.keycloak.bizbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the payloads under src/jmh/resources/fixtures.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    static String load(String name) {
+        try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Builds a userProfileInfo.do response with the given number of members, named user0 to user(n-1).
+     */
+    static byte[] profileResponse(int members) {
+        String member = load("member.json");
+        StringBuilder json = new StringBuilder(member.length() * members + 64);
+        json.append("{\"startCount\":0,\"totalCount\":").append(members).append(",\"list\":[");
+        for (int i = 0; i < members; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(member.replace("${loginId}", "user" + i));
+        }
+        json.append("]}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Scan of the pages actionLogin.do answers with: the Spring Security form of an accepted login
+ * and the alert page of rejected credentials. The result type is package-private, so it goes to the blackhole
+ * instead of being returned to the generated code in another package.
+ */
+@State(Scope.Benchmark)
+public class LoginFormScannerBenchmark {
+
+    private String loginForm;
+    private String rejected;
+
+    @Setup
+    public void setUp() {
+        loginForm = BenchmarkFixtures.load("login-form.html");
+        rejected = BenchmarkFixtures.load("login-rejected.html");
+    }
+
+    @Benchmark
+    public void scanLoginForm(Blackhole blackhole) throws IOException {
+        blackhole.consume(BizboxLoginFormScanner.scan(new StringReader(loginForm)));
+    }
+
+    @Benchmark
+    public void scanRejected(Blackhole blackhole) throws IOException {
+        blackhole.consume(BizboxLoginFormScanner.scan(new StringReader(rejected)));
+    }
+}
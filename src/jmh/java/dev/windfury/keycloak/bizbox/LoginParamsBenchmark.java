@@ -0,0 +1,60 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encryption and encoding of the actionLogin.do parameters. The encrypted id is cached per username,
+ * {@link #generateLoginParamsNewUser} measures a login of a user that is not cached yet.
+ */
+@State(Scope.Benchmark)
+public class LoginParamsBenchmark {
+
+    private CloseableHttpClient httpClient;
+    private BizboxExternalApi api;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        httpClient = HttpClients.createDefault();
+        api = new BizboxExternalApi(httpClient,
+            new BizboxEndpoints(List.of("http://localhost"), BizboxEndpoints.Policy.ROUND_ROBIN), RequestConfig.DEFAULT, Duration.ofSeconds(10), null, BizboxMetrics.disabled());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        api.close();
+        httpClient.close();
+    }
+
+    @Benchmark
+    public Map<String, String> generateLoginParams() {
+        return api.generateLoginParams("hong.gildong", "P@ssw0rd!2024");
+    }
+
+    @Benchmark
+    public Map<String, String> generateLoginParamsNewUser() {
+        return api.generateLoginParams("user" + (counter++), "P@ssw0rd!2024");
+    }
+
+    @Benchmark
+    public String securityEncrypt() {
+        return api.securityEncrypt("P@ssw0rd!2024", 0);
+    }
+
+    @Benchmark
+    public String encodeURIComponent() {
+        return BizboxExternalApi.encodeURIComponent("U2FsdGVkX1+5dGhpcyBpcyBhbiBlbmNyeXB0ZWQgdXNlcg==");
+    }
+}
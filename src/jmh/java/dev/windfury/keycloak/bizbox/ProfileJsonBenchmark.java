@@ -0,0 +1,54 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.windfury.keycloak.bizbox.dto.UserMemberDTO;
+import dev.windfury.keycloak.bizbox.dto.UserResponseDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * Reading of a userProfileInfo.do response with a small and a very large member list: full databind of
+ * {@link UserResponseDTO} against the streaming lookup the login uses, which looks for the last member.
+ */
+@State(Scope.Benchmark)
+public class ProfileJsonBenchmark {
+
+    @Param({"10", "5000"})
+    public int members;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] response;
+    private String lastLoginId;
+
+    @Setup
+    public void setUp() {
+        response = BenchmarkFixtures.profileResponse(members);
+        lastLoginId = "user" + (members - 1);
+    }
+
+    @Benchmark
+    public UserResponseDTO bindUserResponse() throws IOException {
+        return objectMapper.readValue(response, UserResponseDTO.class);
+    }
+
+    @Benchmark
+    public UserMemberDTO streamFindMember() throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            return BizboxMemberReader.findMember(parser, lastLoginId);
+        }
+    }
+
+    @Benchmark
+    public int streamAllMembers(Blackhole blackhole) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            return BizboxMemberReader.forEachMember(parser, blackhole::consume);
+        }
+    }
+}
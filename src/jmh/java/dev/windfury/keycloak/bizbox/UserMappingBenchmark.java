@@ -0,0 +1,51 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import dev.windfury.keycloak.bizbox.dto.UserMemberDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Mapping of a Bizbox member to the synced {@link User}: name split for Hangul and Latin names and email assembly.
+ */
+@State(Scope.Benchmark)
+public class UserMappingBenchmark {
+
+    private UserMemberDTO member;
+
+    @Setup
+    public void setUp() {
+        member = new UserMemberDTO();
+        member.setLoginId("hong.gildong");
+        member.setName("홍길동");
+        member.setEmailAddr("hong.gildong");
+        member.setEmailDomain("example.co.kr");
+        member.setMobileTelephoneNumber("010-1234-5678");
+        member.setTelephoneNumber("02-6233-3000");
+        member.setFaxNumber("02-6233-3001");
+        member.setCompanySeq("1000");
+        member.setDepartmentSeq("1210");
+    }
+
+    @Benchmark
+    public String[] splitNameHangul() {
+        return BizboxAuthenticator.splitName("홍길동");
+    }
+
+    @Benchmark
+    public String[] splitNameLatin() {
+        return BizboxAuthenticator.splitName("Gil Dong Hong");
+    }
+
+    @Benchmark
+    public String buildEmail() {
+        return BizboxAuthenticator.buildEmail(member);
+    }
+
+    @Benchmark
+    public User toUser() {
+        return BizboxAuthenticator.toUser(member);
+    }
+}
@@ -0,0 +1,202 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.AuthenticationFlowError;
+import org.keycloak.authentication.Authenticator;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives {@link BizboxAuthenticator} from concurrent threads against a {@link BizboxStubServer} and reports throughput,
+ * latency percentiles and the requests that reached the stub.
+ * <p>
+ * The authenticator is built by {@link BizboxAuthenticatorFactory} from {@code bizbox.<option>} system properties, using
+ * the SPI option names of the factory (e.g. {@code -Dbizbox.credentialCacheEnabled=true}), so pooling, timeouts and
+ * caches behave as configured in Keycloak. {@code BIZBOX_API_URL} must point to the stub; a stub is started by the
+ * harness for every localhost URL in it unless {@code -Dstub.embedded=false}, so a comma separated list of ports
+ * exercises the load balancing over several nodes.
+ * <p>
+ * Load options: {@code loadtest.threads}, {@code loadtest.warmup} and {@code loadtest.duration} in seconds,
+ * {@code loadtest.users} distinct users logging in, {@code loadtest.invalidRate} fraction of logins with a wrong password.
+ */
+public final class BizboxLoadTest {
+
+    private static final class Worker implements Runnable {
+        private final Runnable login;
+        private final long warmupEnd;
+        private final long end;
+        private final CountDownLatch done;
+        private long[] latencies = new long[4096];
+        private int count;
+
+        private Worker(Runnable login, long warmupEnd, long end, CountDownLatch done) {
+            this.login = login;
+            this.warmupEnd = warmupEnd;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long start;
+                while ((start = System.nanoTime()) < end) {
+                    login.run();
+                    if (start >= warmupEnd) {
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    private BizboxLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("loadtest.threads", 32);
+        Duration warmup = Duration.ofSeconds(Long.getLong("loadtest.warmup", 5L));
+        Duration duration = Duration.ofSeconds(Long.getLong("loadtest.duration", 30L));
+        int users = Integer.getInteger("loadtest.users", 1000);
+        double invalidRate = Double.parseDouble(System.getProperty("loadtest.invalidRate", "0"));
+
+        if (BizboxExternalApi.API_URL == null) {
+            throw new IllegalStateException("BIZBOX_API_URL is not set, e.g. BIZBOX_API_URL=http://localhost:18080");
+        }
+        BizboxStubServer.Settings stubSettings = new BizboxStubServer.Settings();
+        List<BizboxStubServer> stubs = new ArrayList<>();
+        if (Boolean.parseBoolean(System.getProperty("stub.embedded", "true"))) {
+            for (String url : BizboxEndpoints.split(BizboxExternalApi.API_URL)) {
+                URI apiUrl = URI.create(url);
+                if ("localhost".equals(apiUrl.getHost())) {
+                    BizboxStubServer.Settings settings = new BizboxStubServer.Settings();
+                    settings.port = apiUrl.getPort();
+                    BizboxStubServer stub = new BizboxStubServer(settings);
+                    stub.start();
+                    stubs.add(stub);
+                }
+            }
+        }
+        if (users > stubSettings.members) {
+            throw new IllegalStateException("loadtest.users " + users + " exceeds the " + stubSettings.members + " stub members");
+        }
+
+        BizboxAuthenticatorFactory factory = new BizboxAuthenticatorFactory();
+        factory.init(new Config.SystemPropertiesScope("bizbox."));
+        LoadTestKeycloak keycloak = new LoadTestKeycloak();
+        String password = encode(stubSettings.password);
+        String wrongPassword = encode(stubSettings.password + "-wrong");
+
+        Map<AuthenticationFlowError, LongAdder> failures = new EnumMap<>(AuthenticationFlowError.class);
+        for (AuthenticationFlowError error : AuthenticationFlowError.values()) {
+            failures.put(error, new LongAdder());
+        }
+        LongAdder successes = new LongAdder();
+        LongAdder exceptions = new LongAdder();
+        Runnable login = () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String username = "user" + random.nextInt(users);
+            boolean invalid = invalidRate > 0 && random.nextDouble() < invalidRate;
+            LoadTestKeycloak.Login result = new LoadTestKeycloak.Login();
+            Authenticator authenticator = factory.create(keycloak.getSession());
+            try {
+                authenticator.authenticate(keycloak.context(username, invalid ? wrongPassword : password, result));
+                if (result.isSuccess()) {
+                    successes.increment();
+                } else if (result.getError() != null) {
+                    failures.get(result.getError()).increment();
+                }
+            } catch (RuntimeException e) {
+                exceptions.increment();
+            } finally {
+                authenticator.close();
+            }
+        };
+
+        System.out.printf("Load test: %d threads, %d users, invalid rate %.2f, warm-up %ds, measured %ds against %s%n",
+            threads, users, invalidRate, warmup.toSeconds(), duration.toSeconds(), BizboxExternalApi.API_URL);
+        long start = System.nanoTime();
+        long warmupEnd = start + warmup.toNanos();
+        long end = warmupEnd + duration.toNanos();
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Worker> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(login, warmupEnd, end, done);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "loadtest-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        int total = 0;
+        for (Worker worker : workers) {
+            total += worker.count;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+            offset += worker.count;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%nLogins measured: %d, throughput %.1f/s%n", total, total / (double) duration.toSeconds());
+        System.out.printf("Latency ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+            percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), percentile(latencies, 99.9),
+            total > 0 ? latencies[total - 1] / 1e6 : 0.0);
+        System.out.printf("Outcomes (including warm-up): success %d", successes.sum());
+        failures.forEach((error, count) -> {
+            if (count.sum() > 0) {
+                System.out.printf(", %s %d", error.name().toLowerCase(), count.sum());
+            }
+        });
+        System.out.printf(", exception %d%n", exceptions.sum());
+        System.out.printf("Keycloak users: %d%n", keycloak.getUserCount());
+        BizboxExternalApi api = factory.getBackend(keycloak.getRealm()).getApi();
+        for (BizboxCircuitBreaker breaker : api.getCircuitBreakers()) {
+            System.out.printf("Circuit breaker %s: %s%n", breaker.getName(), breaker.getState());
+        }
+        System.out.printf("Endpoints: %s%n", api.getEndpoints().describe());
+
+        factory.close();
+        for (BizboxStubServer stub : stubs) {
+            System.out.printf("Stub %d requests: actionLogin %d, j_spring_security_check %d, userProfileInfo %d, logout %d, errors %d, open sessions %d%n",
+                stub.getPort(), stub.getRequests(BizboxStubServer.Endpoint.ACTION_LOGIN), stub.getRequests(BizboxStubServer.Endpoint.SECURITY_CHECK),
+                stub.getRequests(BizboxStubServer.Endpoint.PROFILE), stub.getRequests(BizboxStubServer.Endpoint.LOGOUT),
+                stub.getErrors(), stub.getOpenSessions());
+            stub.close();
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    /**
+     * @return password as the login form submits it
+     */
+    private static String encode(String password) {
+        return Base64.getEncoder().encodeToString(password.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,397 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the Bizbox endpoints used by {@link BizboxExternalApi}: actionLogin.do answering with the
+ * Spring Security form, j_spring_security_check, userProfileInfo.do and actionLogout.do.
+ * Members are named user0 to user(n-1) and share one password, the service account {@value #SERVICE_USERNAME}
+ * uses the same password. Latency, error rate and payload sizes come from {@link Settings}.
+ */
+public class BizboxStubServer implements Closeable {
+
+    public static final String SERVICE_USERNAME = "svc-keycloak";
+
+    /**
+     * Endpoints of the stub, counted per request.
+     */
+    public enum Endpoint {
+        ACTION_LOGIN("/gw/uat/uia/actionLogin.do"),
+        SECURITY_CHECK("/gw/j_spring_security_check"),
+        PROFILE("/gw/cmm/systemx/userProfileInfo.do"),
+        LOGOUT("/gw/uat/uia/actionLogout.do");
+
+        private final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+    }
+
+    /**
+     * Behavior of the stub, read from {@code stub.*} system properties.
+     */
+    public static class Settings {
+        /** port to listen on */
+        int port = Integer.getInteger("stub.port", 18080);
+        /** minimum latency added to every response */
+        Duration latency = Duration.ofMillis(Long.getLong("stub.latency", 20L));
+        /** maximum random latency added on top of {@link #latency} */
+        Duration jitter = Duration.ofMillis(Long.getLong("stub.jitter", 10L));
+        /** extra latency of userProfileInfo.do, which builds the whole member list on the real server */
+        Duration profileLatency = Duration.ofMillis(Long.getLong("stub.profileLatency", 50L));
+        /** fraction of requests answered with 500 */
+        double errorRate = Double.parseDouble(System.getProperty("stub.errorRate", "0"));
+        /** number of members in the userProfileInfo.do response */
+        int members = Integer.getInteger("stub.members", 2000);
+        /** bytes of markup around the Spring Security form of the login page */
+        int pageSize = Integer.getInteger("stub.pageSize", 16 * 1024);
+        /** password of every member */
+        String password = System.getProperty("stub.password", "P@ssw0rd!");
+        /** request threads of the stub */
+        int threads = Integer.getInteger("stub.threads", 256);
+
+        @Override
+        public String toString() {
+            return "port=" + port + ", latency=" + latency.toMillis() + "ms, jitter=" + jitter.toMillis()
+                + "ms, profileLatency=" + profileLatency.toMillis() + "ms, errorRate=" + errorRate
+                + ", members=" + members + ", pageSize=" + pageSize + ", threads=" + threads;
+        }
+    }
+
+    private static final String COOKIE_NAME = "JSESSIONID=";
+    //key and iv of the login parameter encryption, see BizboxExternalApi.securityEncrypt
+    private static final String ENCRYPTION_KEY = "duzon@1234123412";
+
+    private final Logger log = LoggerFactory.getLogger(BizboxStubServer.class);
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] loginPage;
+    private final byte[] rejectedPage;
+    private final byte[] profileResponse;
+    //JSESSIONID -> login id of sessions waiting for the Spring Security check, and of logged in sessions
+    private final Map<String, String> pendingSessions = new ConcurrentHashMap<>();
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+    private final Map<Endpoint, LongAdder> requests = new EnumMap<>(Endpoint.class);
+    private final LongAdder errors = new LongAdder();
+
+    public BizboxStubServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.loginPage = loginPage(settings.pageSize);
+        this.rejectedPage = ("<html><head><meta charset=\"UTF-8\"></head><body><script>"
+            + "alert('아이디 또는 비밀번호가 일치하지 않습니다.');history.back();</script></body></html>")
+            .getBytes(StandardCharsets.UTF_8);
+        this.profileResponse = profileResponse(settings.members);
+        for (Endpoint endpoint : Endpoint.values()) {
+            requests.put(endpoint, new LongAdder());
+        }
+        this.server = HttpServer.create(new InetSocketAddress("localhost", settings.port), 1024);
+        this.executor = Executors.newFixedThreadPool(settings.threads, runnable -> {
+            Thread thread = new Thread(runnable, "bizbox-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(Endpoint.ACTION_LOGIN.path, exchange -> handle(exchange, Endpoint.ACTION_LOGIN));
+        server.createContext(Endpoint.SECURITY_CHECK.path, exchange -> handle(exchange, Endpoint.SECURITY_CHECK));
+        server.createContext(Endpoint.PROFILE.path, exchange -> handle(exchange, Endpoint.PROFILE));
+        server.createContext(Endpoint.LOGOUT.path, exchange -> handle(exchange, Endpoint.LOGOUT));
+        //redirect targets; the built-in answer for unknown paths closes the connection, which would empty the client pool
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                readBody(exchange);
+                send(exchange, 200, "text/html;charset=UTF-8", "<html><body></body></html>".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        log.info("Bizbox stub listening on http://localhost:{} ({})", settings.port, settings);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return settings.port;
+    }
+
+    public long getRequests(Endpoint endpoint) {
+        return requests.get(endpoint).sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return sessions that logged in and were not logged out
+     */
+    public int getOpenSessions() {
+        return sessions.size();
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        try (exchange) {
+            requests.get(endpoint).increment();
+            String body = readBody(exchange);
+            sleep(endpoint == Endpoint.PROFILE ? settings.latency.plus(settings.profileLatency) : settings.latency);
+            if (settings.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < settings.errorRate) {
+                errors.increment();
+                send(exchange, 500, "text/html;charset=UTF-8", "<html><body>Internal Server Error</body></html>".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            switch (endpoint) {
+                case ACTION_LOGIN:
+                    actionLogin(exchange, body);
+                    break;
+                case SECURITY_CHECK:
+                    securityCheck(exchange, body);
+                    break;
+                case PROFILE:
+                    profile(exchange);
+                    break;
+                default:
+                    logout(exchange);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            log.error("Bizbox stub failed to answer {}", endpoint, e);
+            throw e;
+        }
+    }
+
+    private void actionLogin(HttpExchange exchange, String body) throws IOException {
+        Map<String, String> params = formParams(body);
+        String loginId = decrypt(params.get("id") + params.getOrDefault("id_sub1", "") + params.getOrDefault("id_sub2", ""));
+        String password = decrypt(params.get("password"));
+        if (!isMember(loginId) || !settings.password.equals(password)) {
+            send(exchange, 200, "text/html;charset=UTF-8", rejectedPage);
+            return;
+        }
+        String sessionId = UUID.randomUUID().toString().replace("-", "").toUpperCase();
+        pendingSessions.put(sessionId, loginId);
+        exchange.getResponseHeaders().add("Set-Cookie", COOKIE_NAME + sessionId + "; Path=/gw; HttpOnly");
+        send(exchange, 200, "text/html;charset=UTF-8", loginPage);
+    }
+
+    private void securityCheck(HttpExchange exchange, String body) throws IOException {
+        String sessionId = sessionId(exchange);
+        String loginId = sessionId != null ? pendingSessions.remove(sessionId) : null;
+        if (loginId == null || formParams(body).get("j_username") == null) {
+            exchange.getResponseHeaders().add("Location", "/gw/uat/uia/egovLoginUsr.do");
+            send(exchange, 302, null, new byte[0]);
+            return;
+        }
+        sessions.put(sessionId, loginId);
+        exchange.getResponseHeaders().add("Location", "/gw/userMain.do");
+        send(exchange, 302, null, new byte[0]);
+    }
+
+    private void profile(HttpExchange exchange) throws IOException {
+        String sessionId = sessionId(exchange);
+        if (sessionId == null || !sessions.containsKey(sessionId)) {
+            send(exchange, 401, "text/html;charset=UTF-8", "<html><body>Session expired</body></html>".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        send(exchange, 200, "application/json;charset=UTF-8", profileResponse);
+    }
+
+    private void logout(HttpExchange exchange) throws IOException {
+        String sessionId = sessionId(exchange);
+        if (sessionId != null) {
+            sessions.remove(sessionId);
+        }
+        exchange.getResponseHeaders().add("Location", "/gw/uat/uia/egovLoginUsr.do");
+        send(exchange, 302, null, new byte[0]);
+    }
+
+    private boolean isMember(String loginId) {
+        if (SERVICE_USERNAME.equals(loginId)) {
+            return true;
+        }
+        if (loginId == null || !loginId.startsWith("user")) {
+            return false;
+        }
+        try {
+            int index = Integer.parseInt(loginId.substring(4));
+            return index >= 0 && index < settings.members;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reverses {@link BizboxExternalApi#securityEncrypt}: the value is encodeURIComponent("!" + base64(AES/CBC)).
+     * @return plain value, or null if it cannot be decrypted
+     */
+    private static String decrypt(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        String decoded = URLDecoder.decode(value, StandardCharsets.UTF_8);
+        if (decoded.startsWith("!")) {
+            decoded = decoded.substring(1);
+        }
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            byte[] key = ENCRYPTION_KEY.getBytes(StandardCharsets.UTF_8);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(key));
+            return new String(cipher.doFinal(Base64.getDecoder().decode(decoded)), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> formParams(String body) {
+        Map<String, String> params = new HashMap<>();
+        if (body == null || body.isEmpty()) {
+            return params;
+        }
+        for (String pair : body.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static String sessionId(HttpExchange exchange) {
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookie == null) {
+            return null;
+        }
+        for (String term : cookie.split(";")) {
+            String trimmed = term.trim();
+            if (trimmed.startsWith(COOKIE_NAME)) {
+                return trimmed.substring(COOKIE_NAME.length());
+            }
+        }
+        return null;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private void sleep(Duration latency) {
+        long millis = latency.toMillis();
+        if (settings.jitter.toMillis() > 0) {
+            millis += ThreadLocalRandom.current().nextLong(settings.jitter.toMillis() + 1);
+        }
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return login page with the Spring Security form in the middle of about {@code size} bytes of markup
+     */
+    private static byte[] loginPage(int size) {
+        StringBuilder filler = new StringBuilder(size / 2 + 64);
+        while (filler.length() < size / 2) {
+            filler.append("<div class=\"notice\"><span>그룹웨어 공지사항</span><a href=\"/gw/notice.do\">more</a></div>\n");
+        }
+        return ("<!DOCTYPE html><html><head><meta charset=\"UTF-8\"><title>Bizbox Alpha</title></head><body>\n"
+            + filler
+            + "<form id=\"loginForm\" name=\"loginForm\" method=\"post\" action=\"/gw/j_spring_security_check\">\n"
+            + "<input type=\"hidden\" name=\"j_username\" value=\"!c2Vzc2lvbi11c2Vy\">\n"
+            + "<input type=\"hidden\" name=\"j_password\" value=\"!c2Vzc2lvbi1wYXNzd29yZA==\">\n"
+            + "</form>\n"
+            + "<script>document.loginForm.submit();</script>\n"
+            + filler
+            + "</body></html>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] profileResponse(int members) {
+        StringBuilder json = new StringBuilder(members * 900 + 64);
+        json.append("{\"startCount\":0,\"totalCount\":").append(members).append(",\"list\":[");
+        for (int i = 0; i < members; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String loginId = "user" + i;
+            json.append("{\"loginId\":\"").append(loginId).append("\",")
+                .append("\"name\":\"홍길동").append(i).append("\",")
+                .append("\"emailAddr\":\"").append(loginId).append("\",\"emailDomain\":\"example.co.kr\",")
+                .append("\"mobileTelNum\":\"010-1234-").append(String.format("%04d", i % 10000)).append("\",")
+                .append("\"telNum\":\"02-6233-3000\",\"faxNum\":\"02-6233-3001\",")
+                .append("\"compSeq\":\"1000\",\"compName\":\"더존비즈온\",")
+                .append("\"deptSeq\":\"").append(1200 + i % 40).append("\",\"deptName\":\"개발").append(i % 40).append("팀\",")
+                .append("\"dutyCode\":\"D0").append(i % 5).append("\",\"dutyCodeName\":\"책임\",")
+                .append("\"positionCode\":\"P0").append(i % 7).append("\",\"positionCodeName\":\"선임\",")
+                .append("\"pathName\":\"더존비즈온|개발본부|개발").append(i % 40).append("팀\",")
+                .append("\"depth\":3,\"mainWork\":\"Keycloak 연동\",\"privateYn\":\"N\"}");
+        }
+        json.append("]}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs the stub on its own, e.g. to point a local Keycloak at it.
+     */
+    public static void main(String[] args) throws Exception {
+        BizboxStubServer stub = new BizboxStubServer(new Settings());
+        Runtime.getRuntime().addShutdownHook(new Thread(stub::close));
+        stub.start();
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,242 @@
+package dev.windfury.keycloak.bizbox;
+
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.AuthenticationFlowError;
+import org.keycloak.credential.CredentialInput;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.http.HttpRequest;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.SubjectCredentialManager;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * In-memory stand-ins for the parts of Keycloak {@link BizboxAuthenticator} touches during a login: the flow context,
+ * the session, one realm and its users. Users live in a map for the whole run, like imported users in the database.
+ */
+final class LoadTestKeycloak {
+
+    /**
+     * Result of one {@link BizboxAuthenticator#authenticate} call.
+     */
+    static final class Login {
+        private AuthenticationFlowError error;
+        private boolean success;
+        private UserModel user;
+
+        boolean isSuccess() {
+            return success;
+        }
+
+        AuthenticationFlowError getError() {
+            return error;
+        }
+
+        UserModel getUser() {
+            return user;
+        }
+    }
+
+    private final Map<String, UserModel> users = new ConcurrentHashMap<>();
+    private final RealmModel realm;
+    private final KeycloakSession session;
+
+    LoadTestKeycloak() {
+        Map<String, RoleModel> roles = new ConcurrentHashMap<>();
+        Map<String, Function<Object[], Object>> realmMethods = new HashMap<>();
+        realmMethods.put("getId", args -> "loadtest");
+        realmMethods.put("getName", args -> "loadtest");
+        realmMethods.put("getRole", args -> roles.computeIfAbsent((String) args[0], LoadTestKeycloak::role));
+        realmMethods.put("getRoleById", args -> roles.get((String) args[0]));
+        realmMethods.put("getComponentsStream", args -> Stream.empty());
+        realmMethods.put("getAuthenticationFlowsStream", args -> Stream.empty());
+        this.realm = proxy(RealmModel.class, realmMethods);
+
+        Map<String, Function<Object[], Object>> userProviderMethods = new HashMap<>();
+        userProviderMethods.put("getUserByUsername", args -> users.get((String) args[1]));
+        userProviderMethods.put("addUser", args -> users.computeIfAbsent((String) args[1], LoadTestKeycloak::user));
+        UserProvider userProvider = proxy(UserProvider.class, userProviderMethods);
+
+        Map<String, Function<Object[], Object>> sessionMethods = new HashMap<>();
+        sessionMethods.put("users", args -> userProvider);
+        this.session = proxy(KeycloakSession.class, sessionMethods);
+    }
+
+    KeycloakSession getSession() {
+        return session;
+    }
+
+    RealmModel getRealm() {
+        return realm;
+    }
+
+    int getUserCount() {
+        return users.size();
+    }
+
+    /**
+     * @return flow context of a login form posted with the given username and password
+     */
+    AuthenticationFlowContext context(String username, String password, Login login) {
+        MultivaluedMap<String, String> form = new MultivaluedHashMap<>();
+        form.putSingle("username", username);
+        form.putSingle("password", password);
+        Map<String, Function<Object[], Object>> requestMethods = new HashMap<>();
+        requestMethods.put("getDecodedFormParameters", args -> form);
+        HttpRequest request = proxy(HttpRequest.class, requestMethods);
+
+        Map<String, Function<Object[], Object>> contextMethods = new HashMap<>();
+        contextMethods.put("getHttpRequest", args -> request);
+        contextMethods.put("getSession", args -> session);
+        contextMethods.put("getRealm", args -> realm);
+        contextMethods.put("setUser", args -> login.user = (UserModel) args[0]);
+        contextMethods.put("success", args -> login.success = true);
+        contextMethods.put("failure", args -> login.error = (AuthenticationFlowError) args[0]);
+        return proxy(AuthenticationFlowContext.class, contextMethods);
+    }
+
+    private static RoleModel role(String name) {
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("getId", args -> name);
+        methods.put("getName", args -> name);
+        return proxy(RoleModel.class, methods);
+    }
+
+    private static UserModel user(String username) {
+        Map<String, Object> properties = new ConcurrentHashMap<>();
+        Map<String, List<String>> attributes = new ConcurrentHashMap<>();
+        Set<Object> roles = ConcurrentHashMap.newKeySet();
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("getId", args -> username);
+        methods.put("getUsername", args -> username);
+        methods.put("isEnabled", args -> properties.getOrDefault("enabled", false));
+        methods.put("setEnabled", args -> properties.put("enabled", args[0]));
+        methods.put("getFirstName", args -> properties.get("firstName"));
+        methods.put("setFirstName", args -> put(properties, "firstName", args[0]));
+        methods.put("getLastName", args -> properties.get("lastName"));
+        methods.put("setLastName", args -> put(properties, "lastName", args[0]));
+        methods.put("getEmail", args -> properties.get("email"));
+        methods.put("setEmail", args -> put(properties, "email", args[0]));
+        methods.put("getFirstAttribute", args -> attributes.getOrDefault((String) args[0], List.of()).stream().findFirst().orElse(null));
+        methods.put("getAttributeStream", args -> attributes.getOrDefault((String) args[0], List.of()).stream());
+        methods.put("setSingleAttribute", args -> args[1] != null ? attributes.put((String) args[0], List.of((String) args[1])) : attributes.remove((String) args[0]));
+        methods.put("setAttribute", args -> attributes.put((String) args[0], List.copyOf((List<String>) args[1])));
+        methods.put("removeAttribute", args -> attributes.remove((String) args[0]));
+        SubjectCredentialManager credentialManager = credentialManager();
+        methods.put("credentialManager", args -> credentialManager);
+        methods.put("hasDirectRole", args -> roles.contains(args[0]));
+        methods.put("grantRole", args -> roles.add(args[0]));
+        methods.put("isMemberOf", args -> roles.contains(args[0]));
+        methods.put("joinGroup", args -> roles.add(args[0]));
+        methods.put("deleteRoleMapping", args -> roles.remove(args[0]));
+        methods.put("leaveGroup", args -> roles.remove(args[0]));
+        return proxy(UserModel.class, methods);
+    }
+
+    /**
+     * @return credential store of one user keeping the password as it is, the hashing being Keycloak's cost
+     */
+    private static SubjectCredentialManager credentialManager() {
+        Map<String, CredentialModel> credentials = new ConcurrentHashMap<>();
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("isValid", args -> {
+            //the varargs overload is a default method, the proxy sees either form
+            List<?> inputs = args[0] instanceof List ? (List<?>) args[0] : Arrays.asList((Object[]) args[0]);
+            return inputs.stream().allMatch(input -> credentials.values().stream().anyMatch(credential ->
+                credential.getType().equals(((CredentialInput) input).getType())
+                    && credential.getSecretData().equals(((CredentialInput) input).getChallengeResponse())));
+        });
+        methods.put("updateCredential", args -> {
+            CredentialInput input = (CredentialInput) args[0];
+            credentials.values().removeIf(credential -> credential.getType().equals(input.getType()));
+            CredentialModel credential = new CredentialModel();
+            credential.setId(UUID.randomUUID().toString());
+            credential.setType(input.getType());
+            credential.setCreatedDate(System.currentTimeMillis());
+            credential.setSecretData(input.getChallengeResponse());
+            credentials.put(credential.getId(), credential);
+            return true;
+        });
+        methods.put("createStoredCredential", args -> {
+            CredentialModel credential = (CredentialModel) args[0];
+            credential.setId(UUID.randomUUID().toString());
+            credentials.put(credential.getId(), credential);
+            return credential;
+        });
+        methods.put("updateStoredCredential", args -> credentials.put(((CredentialModel) args[0]).getId(), (CredentialModel) args[0]));
+        methods.put("removeStoredCredentialById", args -> credentials.remove((String) args[0]) != null);
+        methods.put("getStoredCredentialsByTypeStream", args -> credentials.values().stream()
+            .filter(credential -> credential.getType().equals(args[0])));
+        return proxy(SubjectCredentialManager.class, methods);
+    }
+
+    private static Object put(Map<String, Object> properties, String name, Object value) {
+        return value != null ? properties.put(name, value) : properties.remove(name);
+    }
+
+    /**
+     * @return proxy answering the given methods by name, identity for equals and hashCode, and the default value of the
+     *         return type for everything else
+     */
+    private static <T> T proxy(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                    default:
+                        break;
+                }
+                Function<Object[], Object> answer = methods.get(method.getName());
+                if (answer != null) {
+                    Object result = answer.apply(args != null ? args : new Object[0]);
+                    return method.getReturnType() == void.class ? null : result;
+                }
+                return defaultValue(method.getReturnType());
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(LoadTestKeycloak.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type.isPrimitive()) {
+            return null;
+        }
+        if (type == Set.class) {
+            return new HashSet<>();
+        }
+        return null;
+    }
+}
@@ -2,35 +2,60 @@ package dev.windfury.keycloak.bizbox;
 
 import dev.windfury.keycloak.bizbox.dto.User;
 import dev.windfury.keycloak.bizbox.dto.UserMemberDTO;
-import dev.windfury.keycloak.bizbox.dto.UserResponseDTO;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.AuthenticationFlowError;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.storage.UserStorageProvider;
+import org.keycloak.storage.UserStorageProviderModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
 import java.io.IOException;
 import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 public class BizboxAuthenticator implements Authenticator {
 
-    private final Logger log = LoggerFactory.getLogger(BizboxAuthenticator.class);
+    /**
+     * Detail of the login event and user session note set on logins accepted in degraded mode.
+     */
+    public static final String DEGRADED = "bizbox_degraded";
+
+    //returned instead of a profile when the profile of a returning user is synced after the login
+    private static final User PROFILE_DEFERRED = new User(null, null, null, null, null, null, null, Collections.emptyList());
 
-    private ObjectMapper objectMapper = new ObjectMapper();
+    //returned instead of a profile when Bizbox rejected the password, null means Bizbox accepted it but had no profile
+    private static final User REJECTED = new User(null, null, null, null, null, null, null, Collections.emptyList());
+
+    private final Logger log = LoggerFactory.getLogger(BizboxAuthenticator.class);
 
     private final KeycloakSession session;
 
-    public BizboxAuthenticator(KeycloakSession session) {
+    private final BizboxBackends backends;
+
+    private final BizboxRealmCache realmCache;
+
+    private final BizboxMetrics metrics;
+
+    /**
+     * @param backends shared Bizbox backends, each login uses the one of its execution configuration
+     * @param realmCache shared cache of role mappings and realm lookups
+     * @param metrics per-phase login metrics
+     */
+    public BizboxAuthenticator(KeycloakSession session, BizboxBackends backends, BizboxRealmCache realmCache, BizboxMetrics metrics) {
         this.session = session;
+        this.backends = backends;
+        this.realmCache = realmCache;
+        this.metrics = metrics;
     }
 
     /**
@@ -47,41 +72,180 @@ public class BizboxAuthenticator implements Authenticator {
         String password = formData.getFirst("password");
         log.debug("AUTHENTICATE custom provider: " + username);
 
-        User user = null;
+        BizboxBackend backend;
         try {
-            user = callExternalApi(username, password);
-        } catch (IOException e) {
-            log.error("Errore durante la chiamata all'API esterna", e);
+            backend = backends.get(context.getAuthenticatorConfig());
+        } catch (RuntimeException e) {
+            log.error("Invalid Bizbox settings in authenticator config {}", context.getAuthenticatorConfig().getAlias(), e);
+            metrics.outcome(BizboxMetrics.Outcome.ERROR);
             context.failure(AuthenticationFlowError.INTERNAL_ERROR);
+            return;
+        }
+        BizboxCredentialCache credentialCache = backend.getCredentialCache();
+        BizboxSingleFlight singleFlight = backend.getSingleFlight();
+        BizboxRateLimiter rateLimiter = backend.getRateLimiter();
+
+        //limited before any password is hashed or sent to Bizbox
+        String address = context.getConnection() != null ? context.getConnection().getRemoteAddr() : null;
+        if (rateLimiter != null) {
+            long wait = rateLimiter.acquire(username, address);
+            if (wait > 0) {
+                log.debug("Rejecting login of {} from {}, rate limit exceeded", username, address);
+                metrics.outcome(BizboxMetrics.Outcome.RATE_LIMITED);
+                context.failure(AuthenticationFlowError.USER_TEMPORARILY_DISABLED, Response.status(Response.Status.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, TimeUnit.NANOSECONDS.toSeconds(wait) + 1)
+                        .entity("Too many login attempts, try again later.")
+                        .build());
+                return;
+            }
+        }
+
+        if (backend.getCredentialMigration() != null && username != null && password != null
+                && authenticateLocally(context, backend.getCredentialMigration(), username, password)) {
+            if (rateLimiter != null) {
+                rateLimiter.refund(username, address);
+            }
+            return;
+        }
+
+        String verifier = null;
+        User user = null;
+        if (credentialCache != null && username != null && password != null) {
+            verifier = credentialCache.verifier(username, password);
+            if (credentialCache.isRejected(username, verifier)) {
+                log.debug("Credentials of {} were recently rejected by Bizbox", username);
+                metrics.cache(BizboxMetrics.CacheName.CREDENTIAL, true);
+                metrics.outcome(BizboxMetrics.Outcome.INVALID_CREDENTIALS);
+                context.failure(AuthenticationFlowError.INVALID_USER, Response.status(Response.Status.UNAUTHORIZED)
+                        .entity("You must be authenticated to access this resource.")
+                        .build());
+                return;
+            }
+            user = credentialCache.getVerified(username, verifier);
+            metrics.cache(BizboxMetrics.CacheName.CREDENTIAL, user != null);
+            if (user != null && rateLimiter != null) {
+                rateLimiter.refund(username, address);
+            }
+        }
+
+        boolean verifiedByBizbox = false;
+        //a returning user is let in once Bizbox accepted the password, the profile follows in the background, if the
+        //execution accepts that the login keeps the roles and groups of the previous sync
+        UserModel returning = user == null && backend.getProfileSync() != null && username != null && isProfileSyncDeferred(context)
+            ? findReturning(context, username) : null;
+        if (user == null) {
+            try (BizboxDeadline deadline = backend.getApi().startDeadline()) {
+                AuthenticationFlowContext deferTo = returning != null ? context : null;
+                if (singleFlight != null && username != null && password != null) {
+                    String cacheVerifier = verifier;
+                    //deferred logins only share a call with deferred logins of the same realm
+                    String flightKey = deferTo != null ? context.getRealm().getId() + "/" + username : username;
+                    user = singleFlight.execute(flightKey, password, deadline,
+                        () -> callExternalApi(backend, username, password, cacheVerifier, deadline, deferTo));
+                } else {
+                    user = callExternalApi(backend, username, password, verifier, deadline, deferTo);
+                }
+            } catch (BizboxUnavailableException e) {
+                if (authenticateDegraded(context, backend, username, password, e)) {
+                    return;
+                }
+                log.warn("Rejecting login of {}: {}", username, e.getMessage());
+                metrics.outcome(BizboxMetrics.Outcome.UNAVAILABLE);
+                context.failure(AuthenticationFlowError.INTERNAL_ERROR);
+                return;
+            } catch (BizboxTimeoutException e) {
+                if (authenticateDegraded(context, backend, username, password, e)) {
+                    return;
+                }
+                log.error("Bizbox login of {} did not complete in time", username, e);
+                metrics.outcome(BizboxMetrics.Outcome.TIMEOUT);
+                context.failure(AuthenticationFlowError.INTERNAL_ERROR);
+                return;
+            } catch (IOException e) {
+                if (authenticateDegraded(context, backend, username, password, e)) {
+                    return;
+                }
+                log.error("Errore durante la chiamata all'API esterna", e);
+                metrics.outcome(BizboxMetrics.Outcome.BIZBOX_ERROR);
+                context.failure(AuthenticationFlowError.INTERNAL_ERROR);
+                return;
+            }
+            verifiedByBizbox = user != null && user != REJECTED;
+            if (verifiedByBizbox && user != PROFILE_DEFERRED && verifier != null) {
+                credentialCache.putVerified(username, verifier, user);
+            }
         }
 
-        if (user != null) {
+        if (user != null && user != REJECTED) {
+            long syncStart = System.nanoTime();
             try {
-                UserModel userModel = context.getSession().users().getUserByUsername(context.getRealm(), user.getUsername());
-                if (userModel == null) {
-                    // create user if not exists
-                    userModel = context.getSession().users().addUser(context.getRealm(), user.getUsername());
+                UserModel userModel;
+                if (user == PROFILE_DEFERRED) {
+                    userModel = returning;
+                } else {
+                    userModel = context.getSession().users().getUserByUsername(context.getRealm(), user.getUsername());
+                    UserStorageProviderModel federation = userModel == null
+                        ? BizboxUserStorageProviderFactory.findFederation(context.getRealm()) : null;
+                    if (federation != null) {
+                        userModel = findFederated(context, federation, user.getUsername());
+                        if (userModel == null) {
+                            log.warn("Rejecting login of {}, the Bizbox user federation does not list it", user.getUsername());
+                            metrics.outcome(BizboxMetrics.Outcome.ERROR);
+                            context.failure(AuthenticationFlowError.INVALID_USER, Response.status(Response.Status.UNAUTHORIZED)
+                                    .entity("You must be authenticated to access this resource.")
+                                    .build());
+                            return;
+                        }
+                    } else if (userModel == null) {
+                        // create user if not exists
+                        userModel = context.getSession().users().addUser(context.getRealm(), user.getUsername());
+                        userModel.setEnabled(true);
+                    }
+                    BizboxRoleMapping.Access access = realmCache.mapping(context.getRealm(), context.getAuthenticatorConfig()).map(user);
+                    if (BizboxUserSync.sync(context.getSession(), context.getRealm(), userModel, user, access, realmCache)) {
+                        log.debug("Updated user {} from Bizbox", user.getUsername());
+                    }
                 }
-                userModel.setFirstName(user.getFirstName());
-                userModel.setLastName(user.getLastName());
-                userModel.setEmail(user.getEmail());
-                userModel.setSingleAttribute("mobile-tel-number", user.getMobileTelephoneNumber());
-                userModel.setSingleAttribute("inner-tel-number", user.getInnerTelephoneNumber());
-                userModel.setSingleAttribute("fax-tel-number", user.getFaxTelephoneNumber());
-                userModel.setEnabled(true);
-                for (String role : user.getRoles()) {
-                    userModel.grantRole(context.getRealm().getRole(role));
+                if (verifiedByBizbox && backend.getDegradedMode() != null) {
+                    backend.getDegradedMode().remember(userModel, password);
+                }
+                if (verifiedByBizbox && backend.getCredentialMigration() != null) {
+                    backend.getCredentialMigration().migrate(userModel, password);
                 }
                 //userModel.grantRole(context.getRealm().getRole("user"));
                 context.setUser(userModel);
             }
+            catch (IOException e) {
+                log.warn("Rejecting login of {}: {}", username, e.getMessage());
+                metrics.outcome(BizboxMetrics.Outcome.UNAVAILABLE);
+                context.failure(AuthenticationFlowError.INTERNAL_ERROR);
+                return;
+            }
             catch (Exception e) {
                 log.error("Authentication error", e);
+                metrics.outcome(BizboxMetrics.Outcome.ERROR);
                 context.failure(AuthenticationFlowError.INTERNAL_ERROR);
+                return;
+            } finally {
+                metrics.record(BizboxMetrics.Phase.USER_SYNC, syncStart);
             }
+            metrics.outcome(BizboxMetrics.Outcome.SUCCESS);
             context.success();
         } else {
+            if (user == REJECTED && (backend.getDegradedMode() != null || backend.getCredentialMigration() != null)
+                && username != null && password != null) {
+                //a rejected password matching the last-known-good or migrated one was changed in Bizbox, a login
+                //whose profile could not be loaded proved nothing about the password
+                UserModel userModel = context.getSession().users().getUserByUsername(context.getRealm(), username);
+                if (userModel != null && backend.getDegradedMode() != null) {
+                    backend.getDegradedMode().forgetIfMatches(userModel, password);
+                }
+                if (userModel != null && backend.getCredentialMigration() != null) {
+                    backend.getCredentialMigration().forgetIfMatches(userModel, password);
+                }
+            }
             // User not authenticated set unauthorized error
+            metrics.outcome(user == REJECTED ? BizboxMetrics.Outcome.INVALID_CREDENTIALS : BizboxMetrics.Outcome.BIZBOX_ERROR);
             context.failure(AuthenticationFlowError.INVALID_USER, Response.status(Response.Status.UNAUTHORIZED)
                     .entity("You must be authenticated to access this resource.")
                     .build());
@@ -90,44 +254,226 @@ public class BizboxAuthenticator implements Authenticator {
         // It is also possible to use the challenge() method to request the user to provide further information to complete the authentication.
     }
 
+    /**
+     * @return true if the execution opted in to syncing the profile of returning users after their login
+     */
+    private static boolean isProfileSyncDeferred(AuthenticationFlowContext context) {
+        AuthenticatorConfigModel config = context.getAuthenticatorConfig();
+        return config != null && config.getConfig() != null
+            && Boolean.parseBoolean(config.getConfig().get(BizboxAuthenticatorFactory.PROFILE_SYNC_DEFERRED));
+    }
+
+    /**
+     * @return the user of an earlier Bizbox login if it is enabled and was synced before, otherwise null
+     */
+    private UserModel findReturning(AuthenticationFlowContext context, String username) {
+        UserModel userModel = context.getSession().users().getUserByUsername(context.getRealm(), username);
+        return userModel != null && userModel.isEnabled() && userModel.getFirstAttribute(BizboxUserSync.FINGERPRINT) != null
+            ? userModel : null;
+    }
+
+    /**
+     * Looks up a member Bizbox accepted that the user federation of the realm did not find. Users are never added to the
+     * Keycloak database next to the federation: its index is refreshed for members added since the last refresh and
+     * the member is looked up again.
+     * @return the federated user, or null if the federation still does not list it
+     * @throws IOException if the index is not loaded yet or could not be refreshed
+     */
+    private UserModel findFederated(AuthenticationFlowContext context, UserStorageProviderModel federation, String username)
+            throws IOException {
+        BizboxUserStorageProviderFactory storageFactory = (BizboxUserStorageProviderFactory) context.getSession()
+            .getKeycloakSessionFactory().getProviderFactory(UserStorageProvider.class, BizboxUserStorageProviderFactory.PROVIDER_ID);
+        storageFactory.refreshOnMiss(federation, context.getRealm());
+        return context.getSession().users().getUserByUsername(context.getRealm(), username);
+    }
+
+    /**
+     * Accepts a login whose password matches the password migrated into Keycloak, without calling Bizbox.
+     * The user keeps the roles, groups and profile of the last sync.
+     * @return true if the login succeeded, false to verify it with Bizbox
+     */
+    private boolean authenticateLocally(AuthenticationFlowContext context, BizboxCredentialMigration migration, String username,
+                                        String password) {
+        long verifyStart = System.nanoTime();
+        UserModel userModel;
+        try {
+            userModel = context.getSession().users().getUserByUsername(context.getRealm(), username);
+            if (userModel == null || !migration.verify(userModel, password)) {
+                return false;
+            }
+        } finally {
+            metrics.record(BizboxMetrics.Phase.LOCAL_VERIFY, verifyStart);
+        }
+        log.debug("Verified {} with the password migrated into Keycloak", username);
+        context.setUser(userModel);
+        metrics.outcome(BizboxMetrics.Outcome.LOCAL);
+        context.success();
+        return true;
+    }
+
+    /**
+     * Accepts a login Bizbox could not answer if the password matches the last-known-good verifier of the user and
+     * Bizbox is down, see {@link #isBizboxDown}. The login event and the user session are marked with {@link #DEGRADED}.
+     * @param cause why Bizbox could not answer
+     * @return true if the login succeeded, false to fail it as usual
+     */
+    private boolean authenticateDegraded(AuthenticationFlowContext context, BizboxBackend backend, String username, String password,
+                                         IOException cause) {
+        BizboxDegradedMode degradedMode = backend.getDegradedMode();
+        if (degradedMode == null || username == null || password == null || !isBizboxDown(backend, cause)) {
+            return false;
+        }
+        UserModel userModel = context.getSession().users().getUserByUsername(context.getRealm(), username);
+        if (userModel == null || !userModel.isEnabled() || !degradedMode.verify(userModel, password)) {
+            return false;
+        }
+        log.warn("Accepting login of {} with its last-known-good password, Bizbox failed: {}", username, cause.getMessage());
+        if (context.getEvent() != null) {
+            context.getEvent().detail(DEGRADED, cause.getClass().getSimpleName());
+        }
+        if (context.getAuthenticationSession() != null) {
+            context.getAuthenticationSession().setUserSessionNote(DEGRADED, "true");
+        }
+        context.setUser(userModel);
+        metrics.outcome(BizboxMetrics.Outcome.DEGRADED);
+        context.success();
+        return true;
+    }
+
+    /**
+     * Only an open circuit breaker or endpoints that were all ejected show Bizbox as down. A single timeout or error,
+     * or a login turned away because too many identical logins wait, is no reason to trust a stored verifier.
+     */
+    private static boolean isBizboxDown(BizboxBackend backend, IOException cause) {
+        if (cause instanceof BizboxUnavailableException) {
+            return ((BizboxUnavailableException) cause).isCircuitOpen();
+        }
+        return !backend.getApi().getEndpoints().hasHealthy();
+    }
+
     /**
      * Call to external API for authentication
+     * @param backend Bizbox the login is sent to
      * @param username Username of the user
      * @param password Password of the user
-     * @return User authenticated
+     * @param verifier Credential cache verifier of the password, null when the cache is disabled
+     * @param deadline Deadline covering every Bizbox call of this login
+     * @param deferTo Login of a returning user whose profile is synced after the login, null to fetch it now
+     * @return User authenticated, {@link #PROFILE_DEFERRED} if the profile is synced later, {@link #REJECTED} if Bizbox
+     *         rejected the password, or null if Bizbox accepted it but returned no profile
      * @throws IOException
      */
-    private User callExternalApi(String username, String password) throws IOException {
-        BizboxExternalApi api = new BizboxExternalApi();
-        String token = api.getTokenAuthenticateToExternalApi(username, password);
+    private User callExternalApi(BizboxBackend backend, String username, String password, String verifier,
+                                 BizboxDeadline deadline, AuthenticationFlowContext deferTo) throws IOException {
+        String token = backend.getApi().getTokenAuthenticateToExternalApi(username, password, deadline);
         if(token == null) {
-            return null;
+            if (verifier != null) {
+                backend.getCredentialCache().putRejected(username, verifier);
+            }
+            return REJECTED;
         }
-        UserResponseDTO userResponseDTO = api.getProfileToExternalApi(token);
-        if (userResponseDTO == null) {
-            log.warn("User profile response is empty for {}", username);
-            return null;
+        if (deferTo != null) {
+            //the sync outlives the login, so its profile call is not bound by the login deadline
+            BizboxProfileSync.Result result = backend.getProfileSync().submit(deferTo.getSession().getKeycloakSessionFactory(),
+                deferTo.getRealm(), username, () -> loadProfile(backend, username, token, null),
+                realmCache.mapping(deferTo.getRealm(), deferTo.getAuthenticatorConfig()), realmCache);
+            if (result == BizboxProfileSync.Result.QUEUED) {
+                return PROFILE_DEFERRED;
+            }
+            if (result == BizboxProfileSync.Result.COALESCED) {
+                if (backend.getSessionReaper() != null) {
+                    backend.getSessionReaper().logout(token);
+                }
+                return PROFILE_DEFERRED;
+            }
+            log.debug("Profile sync queue of {} is full, syncing {} now", backend.getName(), username);
         }
-        List<UserMemberDTO> members = userResponseDTO.getList();
-        if (members == null) {
-            log.warn("User profile list is empty for {}", username);
-            return null;
+        return loadProfile(backend, username, token, deadline);
+    }
+
+    /**
+     * Loads the profile of a user who just logged in, from the profile cache if enabled, and hands the session of the
+     * login to the session reaper once it is no longer needed.
+     * @param backend Bizbox the user logged in to
+     * @param username Username of the user
+     * @param token JSESSIONID of the Bizbox login
+     * @param deadline Deadline of the login, null if the profile is loaded after the login
+     * @return User mapped from the profile, or null if there is none
+     * @throws IOException
+     */
+    private User loadProfile(BizboxBackend backend, String username, String token, BizboxDeadline deadline) throws IOException {
+        BizboxServiceSession serviceSession = backend.getProfileSession();
+        BizboxSessionReaper sessionReaper = backend.getSessionReaper();
+        BizboxProfileCache profileCache = backend.getProfileCache();
+        if (serviceSession != null && sessionReaper != null) {
+            //the user's session was only needed to verify the password
+            sessionReaper.logout(token);
+        }
+        if (profileCache != null) {
+            //a background refresh runs after the login closed its deadline, so it is only bound by the per-hop timeouts
+            if (serviceSession != null || sessionReaper == null) {
+                return profileCache.get(username, () -> fetchProfile(backend, username, token, deadline));
+            }
+            //without the service session a refresh reuses this login's session, which is logged out once the cache
+            //loaded or discarded the loader
+            return profileCache.get(username, new BizboxProfileCache.ProfileLoader() {
+                @Override
+                public User load() throws IOException {
+                    try {
+                        return fetchProfile(backend, username, token, deadline);
+                    } finally {
+                        sessionReaper.logout(token);
+                    }
+                }
+
+                @Override
+                public void discard() {
+                    sessionReaper.logout(token);
+                }
+            });
         }
-        UserMemberDTO userMember = members
-            .stream()
-            .filter(member -> username.equalsIgnoreCase(member.getLoginId()))
-            .findFirst()
-            .orElse(null);
+        try {
+            return fetchProfile(backend, username, token, deadline);
+        } finally {
+            if (serviceSession == null && sessionReaper != null) {
+                sessionReaper.logout(token);
+            }
+        }
+    }
+
+    /**
+     * Fetches the profile of an authenticated user from Bizbox and maps it
+     * @param backend Bizbox the user logged in to
+     * @param username Username of the user
+     * @param token JSESSIONID of the Bizbox login, unused when profiles are read with the service session
+     * @param deadline Deadline of the login
+     * @return User mapped from the matching member, or null if there is none
+     * @throws IOException
+     */
+    private User fetchProfile(BizboxBackend backend, String username, String token, BizboxDeadline deadline) throws IOException {
+        BizboxServiceSession serviceSession = backend.getProfileSession();
+        UserMemberDTO userMember = serviceSession != null
+            ? serviceSession.getProfileMember(username, deadline)
+            : backend.getApi().getProfileMemberToExternalApi(token, username, deadline);
         if (userMember == null) {
             log.warn("Unable to find member with loginId {} in user profile list", username);
             return null;
         }
 
+        return toUser(userMember);
+    }
+
+    /**
+     * Maps a Bizbox member to the values synced onto the Keycloak user
+     * @param userMember member from userProfileInfo.do
+     * @return User without roles, those are mapped per realm by BizboxRoleMapping
+     */
+    static User toUser(UserMemberDTO userMember) {
         String[] nameParts = splitName(userMember.getName());
         String firstName = nameParts[0];
         String lastName = nameParts[1];
 
-        return new User(
+        User user = new User(
             userMember.getLoginId(),
             firstName,
             lastName,
@@ -135,10 +481,17 @@ public class BizboxAuthenticator implements Authenticator {
             userMember.getMobileTelephoneNumber(),
             userMember.getTelephoneNumber(),
             userMember.getFaxNumber(),
-            Collections.singletonList("default-roles-ez-test"));
+            Collections.emptyList());
+        //organization data, mapped to roles and groups per realm by BizboxRoleMapping
+        user.setCompanySeq(userMember.getCompanySeq());
+        user.setDepartmentSeq(userMember.getDepartmentSeq());
+        user.setDutyCode(userMember.getDutyCode());
+        user.setPositionCode(userMember.getPositionCode());
+        user.setDepth(userMember.getDepth());
+        return user;
     }
 
-    private String buildEmail(UserMemberDTO userMember) {
+    static String buildEmail(UserMemberDTO userMember) {
         String emailAddr = userMember.getEmailAddr();
         String emailDomain = userMember.getEmailDomain();
         if (emailAddr == null || emailAddr.isBlank()) {
@@ -150,7 +503,7 @@ public class BizboxAuthenticator implements Authenticator {
         return emailAddr + "@" + emailDomain;
     }
 
-    private String[] splitName(String displayName) {
+    static String[] splitName(String displayName) {
         if (displayName == null) {
             return new String[]{"", ""};
         }
@@ -179,7 +532,7 @@ public class BizboxAuthenticator implements Authenticator {
         return new String[]{givenName.toString(), lastName};
     }
 
-    private boolean isHangul(int codePoint) {
+    private static boolean isHangul(int codePoint) {
         Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
         return block == Character.UnicodeBlock.HANGUL_SYLLABLES
             || block == Character.UnicodeBlock.HANGUL_JAMO
@@ -1,44 +1,281 @@
 package dev.windfury.keycloak.bizbox;
 
+import io.micrometer.core.instrument.Metrics;
 import org.keycloak.Config;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.AuthenticatorFactory;
 import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderConfigurationBuilder;
+import org.keycloak.provider.ProviderEvent;
+import org.keycloak.provider.ServerInfoAwareProviderFactory;
+import org.keycloak.services.scheduled.ClusterAwareScheduledTaskRunner;
+import org.keycloak.timer.TimerProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
-public class BizboxAuthenticatorFactory implements AuthenticatorFactory {
+public class BizboxAuthenticatorFactory implements AuthenticatorFactory, ServerInfoAwareProviderFactory {
 
     private final Logger log = LoggerFactory.getLogger(BizboxAuthenticatorFactory.class);
     public static final String PROVIDER_ID = "bizbox-authenticator";
 
+    static final String CONNECTION_POOL_SIZE = "connectionPoolSize";
+    static final String CONNECTIONS_PER_ROUTE = "connectionsPerRoute";
+    static final String CONNECTION_IDLE_TIMEOUT = "connectionIdleTimeout";
+    static final String CONNECTION_TTL = "connectionTtl";
+    static final String VALIDATE_AFTER_INACTIVITY = "validateAfterInactivity";
+    static final String CONNECT_TIMEOUT = "connectTimeout";
+    static final String SOCKET_TIMEOUT = "socketTimeout";
+    static final String CONNECTION_REQUEST_TIMEOUT = "connectionRequestTimeout";
+    static final String LOGIN_TIMEOUT = "loginTimeout";
+    static final String CIRCUIT_BREAKER_ENABLED = "circuitBreakerEnabled";
+    static final String CIRCUIT_BREAKER_FAILURE_RATE = "circuitBreakerFailureRate";
+    static final String CIRCUIT_BREAKER_SLOW_CALL_RATE = "circuitBreakerSlowCallRate";
+    static final String CIRCUIT_BREAKER_SLOW_CALL_DURATION = "circuitBreakerSlowCallDuration";
+    static final String CIRCUIT_BREAKER_WINDOW_SIZE = "circuitBreakerWindowSize";
+    static final String CIRCUIT_BREAKER_MINIMUM_CALLS = "circuitBreakerMinimumCalls";
+    static final String CIRCUIT_BREAKER_OPEN_DURATION = "circuitBreakerOpenDuration";
+    static final String CIRCUIT_BREAKER_HALF_OPEN_CALLS = "circuitBreakerHalfOpenCalls";
+    static final String CREDENTIAL_CACHE_ENABLED = "credentialCacheEnabled";
+    static final String CREDENTIAL_CACHE_TTL = "credentialCacheTtl";
+    static final String CREDENTIAL_CACHE_NEGATIVE_TTL = "credentialCacheNegativeTtl";
+    static final String CREDENTIAL_CACHE_MAX_SIZE = "credentialCacheMaxSize";
+    static final String CREDENTIAL_HASH_ITERATIONS = "credentialHashIterations";
+    static final String PROFILE_CACHE_ENABLED = "profileCacheEnabled";
+    static final String PROFILE_CACHE_TTL = "profileCacheTtl";
+    static final String PROFILE_CACHE_REFRESH_AHEAD = "profileCacheRefreshAhead";
+    static final String PROFILE_CACHE_MAX_SIZE = "profileCacheMaxSize";
+    static final String PROFILE_REFRESH_THREADS = "profileRefreshThreads";
+    static final String SINGLE_FLIGHT_ENABLED = "singleFlightEnabled";
+    static final String SINGLE_FLIGHT_MAX_WAITERS = "singleFlightMaxWaiters";
+    static final String PROFILE_SYNC_DEFERRED = "profileSyncDeferred";
+    static final String PROFILE_SYNC_THREADS = "profileSyncThreads";
+    static final String PROFILE_SYNC_QUEUE_SIZE = "profileSyncQueueSize";
+    static final String METRICS_ENABLED = "metricsEnabled";
+    static final String SERVICE_USERNAME = "serviceUsername";
+    static final String SERVICE_PASSWORD = "servicePassword";
+    static final String SERVICE_SESSION_MAX_AGE = "serviceSessionMaxAge";
+    static final String SERVICE_SESSION_PROFILES = "serviceSessionProfiles";
+    static final String SESSION_LOGOUT_ENABLED = "sessionLogoutEnabled";
+    static final String SESSION_LOGOUT_INTERVAL = "sessionLogoutInterval";
+    static final String SESSION_LOGOUT_BATCH_SIZE = "sessionLogoutBatchSize";
+    static final String SESSION_LOGOUT_QUEUE_SIZE = "sessionLogoutQueueSize";
+    static final String ORG_SYNC_REALMS = "orgSyncRealms";
+    static final String ORG_SYNC_INTERVAL = "orgSyncInterval";
+    static final String ORG_SYNC_BATCH_SIZE = "orgSyncBatchSize";
+    static final String CLUSTER_CACHE_ENABLED = "clusterCacheEnabled";
+    static final String CLUSTER_CACHE_NAME = "clusterCacheName";
+    static final String CLUSTER_CACHE_MODE = "clusterCacheMode";
+    static final String ENDPOINTS = "endpoints";
+    static final String LOAD_BALANCING_POLICY = "loadBalancingPolicy";
+    static final String HEALTH_CHECK_INTERVAL = "healthCheckInterval";
+    static final String HEALTH_CHECK_PATH = "healthCheckPath";
+    static final String HEALTH_CHECK_UNHEALTHY_THRESHOLD = "healthCheckUnhealthyThreshold";
+    static final String HEALTH_CHECK_HEALTHY_THRESHOLD = "healthCheckHealthyThreshold";
+    static final String RATE_LIMIT_ENABLED = "rateLimitEnabled";
+    static final String RATE_LIMIT_USERNAME_BURST = "rateLimitUsernameBurst";
+    static final String RATE_LIMIT_USERNAME_PER_MINUTE = "rateLimitUsernamePerMinute";
+    static final String RATE_LIMIT_ADDRESS_BURST = "rateLimitAddressBurst";
+    static final String RATE_LIMIT_ADDRESS_PER_MINUTE = "rateLimitAddressPerMinute";
+    static final String RATE_LIMIT_MAX_SIZE = "rateLimitMaxSize";
+    static final String DEGRADED_MODE_ENABLED = "degradedModeEnabled";
+    static final String DEGRADED_MODE_GRACE = "degradedModeGrace";
+    static final String DEGRADED_MODE_HASH_ITERATIONS = "degradedModeHashIterations";
+    static final String CREDENTIAL_MIGRATION_ENABLED = "credentialMigrationEnabled";
+    static final String CREDENTIAL_MIGRATION_MAX_AGE = "credentialMigrationMaxAge";
+    static final String CREDENTIAL_RECHECK_INTERVAL = "credentialRecheckInterval";
+    static final String CREDENTIAL_RECHECK_SAMPLE_SIZE = "credentialRecheckSampleSize";
+    static final String WARMUP_ENABLED = "warmupEnabled";
+    static final String WARMUP_CONNECTIONS = "warmupConnections";
+    static final String WARMUP_ITERATIONS = "warmupIterations";
+    static final String WARMUP_TIMEOUT = "warmupTimeout";
+
     AuthenticationExecutionModel.Requirement[] REQUIREMENT_CHOICES = new AuthenticationExecutionModel.Requirement[]{AuthenticationExecutionModel.Requirement.REQUIRED, AuthenticationExecutionModel.Requirement.ALTERNATIVE, AuthenticationExecutionModel.Requirement.DISABLED};
 
+    private BizboxMetrics metrics = BizboxMetrics.disabled();
+
+    private BizboxBackends backends;
+
+    private final BizboxRealmCache realmCache = new BizboxRealmCache();
+
+    private BizboxOrgSync orgSync;
+
+    private long orgSyncInterval;
+
+    private BizboxCredentialRecheck credentialRecheck;
+
+    private long credentialRecheckInterval;
+
+    private BizboxWarmup warmup;
+
+    private String clusterCacheName;
+
+    private boolean clusterCacheDistributed;
+
+    private long clusterCacheMaxCount;
 
     @Override
     public Authenticator create(KeycloakSession session) {
-        return new BizboxAuthenticator(session);
+        return new BizboxAuthenticator(session, backends, realmCache, metrics);
     }
 
     @Override
     public void init(Config.Scope config) {
-        //Initialize the provider
+        if (config.getBoolean(METRICS_ENABLED, true)) {
+            metrics = new BizboxMetrics(Metrics.globalRegistry);
+        }
+        backends = new BizboxBackends(config, metrics);
+        BizboxBackend defaultBackend = backends.getDefault();
+        if (config.getBoolean(CLUSTER_CACHE_ENABLED, false) && backends.hasCaches()) {
+            clusterCacheName = config.get(CLUSTER_CACHE_NAME, "bizbox");
+            clusterCacheDistributed = "distributed".equalsIgnoreCase(config.get(CLUSTER_CACHE_MODE, "replicated"));
+            //verified and rejected credentials, profiles and the shared salt
+            clusterCacheMaxCount = 2 * config.getLong(CREDENTIAL_CACHE_MAX_SIZE, 10000L) + config.getLong(PROFILE_CACHE_MAX_SIZE, 10000L) + 1;
+        }
+        String[] orgSyncRealms = config.getArray(ORG_SYNC_REALMS);
+        if (orgSyncRealms != null && orgSyncRealms.length > 0) {
+            orgSyncInterval = Duration.ofSeconds(config.getLong(ORG_SYNC_INTERVAL, 3600L)).toMillis();
+            orgSync = new BizboxOrgSync(backends, realmCache, Arrays.asList(orgSyncRealms), config.getInt(ORG_SYNC_BATCH_SIZE, 100));
+            log.info("Bizbox organization sync of realms {} every {}s", Arrays.toString(orgSyncRealms), orgSyncInterval / 1000);
+        }
+        if (config.getBoolean(WARMUP_ENABLED, true)) {
+            warmup = new BizboxWarmup(config.getInt(WARMUP_CONNECTIONS, 4), config.getInt(WARMUP_ITERATIONS, 200),
+                config.get(HEALTH_CHECK_PATH, "/gw/uat/uia/egovLoginUsr.do"), Duration.ofMillis(config.getLong(WARMUP_TIMEOUT, 10000L)));
+        }
+        if (defaultBackend.getCredentialMigration() != null) {
+            credentialRecheckInterval = Duration.ofSeconds(config.getLong(CREDENTIAL_RECHECK_INTERVAL, 3600L)).toMillis();
+            if (credentialRecheckInterval > 0) {
+                credentialRecheck = new BizboxCredentialRecheck(backends, config.getInt(CREDENTIAL_RECHECK_SAMPLE_SIZE, 500));
+            }
+        }
+    }
+
+    /**
+     * Backend shared with the Bizbox user storage provider, so the federation of a realm reads the members of the Bizbox
+     * its logins go to.
+     * @return backend of the first Bizbox execution configured in the realm, the default backend if there is none
+     * @throws NumberFormatException if an overridden number of the configuration cannot be read
+     */
+    BizboxBackend getBackend(RealmModel realm) {
+        return backends.get(findConfig(realm));
+    }
+
+    /**
+     * @return configuration of the first Bizbox execution found in the realm, or null
+     */
+    static AuthenticatorConfigModel findConfig(RealmModel realm) {
+        return realm.getAuthenticationFlowsStream()
+            .flatMap(flow -> realm.getAuthenticationExecutionsStream(flow.getId()))
+            .filter(execution -> PROVIDER_ID.equals(execution.getAuthenticator()))
+            .map(AuthenticationExecutionModel::getAuthenticatorConfig)
+            .filter(configId -> configId != null)
+            .map(realm::getAuthenticatorConfigById)
+            .filter(config -> config != null)
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * Drops the cached verification and profile of a user, on every node when the caches are shared.
+     */
+    void invalidate(String username) {
+        if (username == null || backends == null) {
+            return;
+        }
+        backends.invalidate(username);
+    }
+
+    private void onUserRemoved(ProviderEvent event) {
+        if (event instanceof UserModel.UserRemovedEvent) {
+            invalidate(((UserModel.UserRemovedEvent) event).getUser().getUsername());
+        }
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-        // Post initialization
+        factory.register(realmCache::onEvent);
+        factory.register(this::onUserRemoved);
+        if (clusterCacheName != null) {
+            KeycloakModelUtils.runJobInTransaction(factory, session -> {
+                BizboxClusterCache clusterCache = BizboxClusterCache.obtain(session, clusterCacheName, clusterCacheDistributed, clusterCacheMaxCount);
+                backends.useClusterCache(clusterCache);
+            });
+        }
+        if (warmup != null) {
+            warmUp(factory);
+        }
+        if (orgSync != null) {
+            //the cluster-aware runner lets only one node of the cluster import per interval
+            KeycloakModelUtils.runJobInTransaction(factory, session -> session.getProvider(TimerProvider.class).schedule(
+                new ClusterAwareScheduledTaskRunner(factory, orgSync, orgSyncInterval), orgSyncInterval, orgSync.getTaskName()));
+        }
+        if (credentialRecheck != null) {
+            KeycloakModelUtils.runJobInTransaction(factory, session -> session.getProvider(TimerProvider.class).schedule(
+                new ClusterAwareScheduledTaskRunner(factory, credentialRecheck, credentialRecheckInterval), credentialRecheckInterval,
+                credentialRecheck.getTaskName()));
+        }
+    }
+
+    /**
+     * Creates the backends of every Bizbox execution configured in the realms and warms them up in parallel. Keycloak
+     * serves requests once postInit returned, so the first logins find resolved names, open connections and compiled code.
+     */
+    private void warmUp(KeycloakSessionFactory factory) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(factory, session -> session.realms().getRealmsStream()
+                .forEach(realm -> realm.getAuthenticationFlowsStream()
+                    .flatMap(flow -> realm.getAuthenticationExecutionsStream(flow.getId()))
+                    .filter(execution -> PROVIDER_ID.equals(execution.getAuthenticator()) && execution.getAuthenticatorConfig() != null)
+                    .map(execution -> realm.getAuthenticatorConfigById(execution.getAuthenticatorConfig()))
+                    .filter(model -> model != null)
+                    .forEach(backends::get)));
+        } catch (RuntimeException e) {
+            //an invalid execution configuration fails its logins, not the startup
+            log.warn("Bizbox backends of the realms not created before warm-up", e);
+        }
+        warmup.run(backends.all());
     }
 
     @Override
     public void close() {
-        // Close the provider
+        if (backends != null) {
+            backends.close();
+            backends = null;
+        }
+        metrics.close();
+        metrics = BizboxMetrics.disabled();
+    }
+
+    /**
+     * Shown on the provider info page of the admin console.
+     */
+    @Override
+    public Map<String, String> getOperationalInfo() {
+        Map<String, String> info = new LinkedHashMap<>();
+        info.put("apiUrl", String.valueOf(BizboxExternalApi.API_URL));
+        if (backends != null) {
+            //the default backend keeps the keys it was shown with before backends existed
+            info.putAll(backends.getDefault().describe(""));
+            for (BizboxBackend backend : backends.all()) {
+                if (backend != backends.getDefault()) {
+                    info.putAll(backend.describe(backend.getName() + "."));
+                }
+            }
+        }
+        return info;
     }
 
     @Override
@@ -63,12 +300,204 @@ public class BizboxAuthenticatorFactory implements AuthenticatorFactory {
 
     @Override
     public List<ProviderConfigProperty> getConfigProperties() {
-        return null;
+        return ProviderConfigurationBuilder.create()
+            .property().name(BizboxRoleMapping.DEFAULT_ROLES).label("Default roles")
+                .type(ProviderConfigProperty.MULTIVALUED_STRING_TYPE).defaultValue(BizboxRoleMapping.LEGACY_DEFAULT_ROLE)
+                .helpText("Realm roles granted to every Bizbox user").add()
+            .property().name(BizboxRoleMapping.ROLE_MAPPINGS).label("Role mappings")
+                .type(ProviderConfigProperty.MULTIVALUED_STRING_TYPE)
+                .helpText("Rules <field>:<value>=<role> granting a realm role, e.g. dutyCode:D01=manager. "
+                    + "Fields are compSeq, deptSeq, dutyCode, positionCode and depth, * matches any value "
+                    + "and {field} in the role is replaced with the user's value.").add()
+            .property().name(BizboxRoleMapping.GROUP_MAPPINGS).label("Group mappings")
+                .type(ProviderConfigProperty.MULTIVALUED_STRING_TYPE)
+                .helpText("Rules <field>:<value>=<group path> adding the user to a group, e.g. compSeq:1000=/company-a/{deptSeq}").add()
+            .property().name(ENDPOINTS).label("Bizbox URL")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Comma separated base URLs of the Bizbox of this realm. Empty uses the Bizbox of the provider options. "
+                    + "This and the settings below give the execution a Bizbox connection pool of its own.").add()
+            .property().name(CONNECT_TIMEOUT).label("Connect timeout")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Milliseconds to wait for a connection to Bizbox, empty uses the provider option").add()
+            .property().name(SOCKET_TIMEOUT).label("Socket timeout")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Milliseconds to wait for data from Bizbox, empty uses the provider option").add()
+            .property().name(LOGIN_TIMEOUT).label("Login timeout")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Milliseconds budget covering every Bizbox call of one login, empty uses the provider option").add()
+            .property().name(CONNECTION_POOL_SIZE).label("Connection pool size")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Maximum number of pooled connections to this Bizbox, empty uses the provider option").add()
+            .property().name(CREDENTIAL_CACHE_TTL).label("Credential cache TTL")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Seconds a successful verification is trusted, empty uses the provider option").add()
+            .property().name(PROFILE_CACHE_TTL).label("Profile cache TTL")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Seconds a cached profile is served, empty uses the provider option").add()
+            .property().name(PROFILE_SYNC_DEFERRED).label("Deferred profile sync")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE).defaultValue(false)
+                .helpText("Let returning users in once Bizbox accepted the password and sync their profile afterwards. "
+                    + "Needs the profile-sync-deferred provider option. The login then carries the roles and groups of the "
+                    + "user's previous sync, so roles revoked in Bizbox since then still apply to it; leave this off for "
+                    + "flows guarding sensitive clients.").add()
+            .property().name(SERVICE_USERNAME).label("Service account")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Bizbox service account of this Bizbox. With a Bizbox URL set, the service account of the provider options is not used.").add()
+            .property().name(SERVICE_PASSWORD).label("Service account password")
+                .type(ProviderConfigProperty.PASSWORD).secret(true)
+                .helpText("Password of the Bizbox service account").add()
+            .build();
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigMetadata() {
+        return ProviderConfigurationBuilder.create()
+            .property().name(CONNECTION_POOL_SIZE).type("int").defaultValue(100)
+                .helpText("Maximum number of pooled connections to Bizbox").add()
+            .property().name(CONNECTIONS_PER_ROUTE).type("int").defaultValue(50)
+                .helpText("Maximum number of pooled connections per Bizbox host").add()
+            .property().name(CONNECTION_IDLE_TIMEOUT).type("long").defaultValue(30L)
+                .helpText("Seconds after which idle pooled connections are evicted").add()
+            .property().name(CONNECTION_TTL).type("long").defaultValue(300L)
+                .helpText("Maximum lifetime of a pooled connection in seconds").add()
+            .property().name(VALIDATE_AFTER_INACTIVITY).type("int").defaultValue(2000)
+                .helpText("Milliseconds of inactivity after which a pooled connection is re-validated before reuse").add()
+            .property().name(CONNECT_TIMEOUT).type("int").defaultValue(3000)
+                .helpText("Milliseconds to wait for a connection to Bizbox to be established").add()
+            .property().name(SOCKET_TIMEOUT).type("int").defaultValue(5000)
+                .helpText("Milliseconds to wait for data from Bizbox on an open connection").add()
+            .property().name(CONNECTION_REQUEST_TIMEOUT).type("int").defaultValue(1000)
+                .helpText("Milliseconds to wait for a free pooled connection").add()
+            .property().name(LOGIN_TIMEOUT).type("long").defaultValue(10000L)
+                .helpText("Milliseconds budget covering every Bizbox call of one login").add()
+            .property().name(CIRCUIT_BREAKER_ENABLED).type("boolean").defaultValue(true)
+                .helpText("Fail logins fast while a Bizbox endpoint keeps failing").add()
+            .property().name(CIRCUIT_BREAKER_FAILURE_RATE).type("int").defaultValue(50)
+                .helpText("Failure percentage at which a circuit breaker opens").add()
+            .property().name(CIRCUIT_BREAKER_SLOW_CALL_RATE).type("int").defaultValue(80)
+                .helpText("Slow-call percentage at which a circuit breaker opens").add()
+            .property().name(CIRCUIT_BREAKER_SLOW_CALL_DURATION).type("long").defaultValue(3000L)
+                .helpText("Milliseconds above which a Bizbox call counts as slow").add()
+            .property().name(CIRCUIT_BREAKER_WINDOW_SIZE).type("int").defaultValue(50)
+                .helpText("Number of recent calls the rates are computed over").add()
+            .property().name(CIRCUIT_BREAKER_MINIMUM_CALLS).type("int").defaultValue(20)
+                .helpText("Number of calls needed before the rates are evaluated").add()
+            .property().name(CIRCUIT_BREAKER_OPEN_DURATION).type("long").defaultValue(30000L)
+                .helpText("Milliseconds a circuit breaker stays open before probing Bizbox").add()
+            .property().name(CIRCUIT_BREAKER_HALF_OPEN_CALLS).type("int").defaultValue(3)
+                .helpText("Number of probe calls allowed while a circuit breaker is half-open").add()
+            .property().name(CREDENTIAL_CACHE_ENABLED).type("boolean").defaultValue(false)
+                .helpText("Cache successful Bizbox verifications so repeat logins skip Bizbox").add()
+            .property().name(CREDENTIAL_CACHE_TTL).type("long").defaultValue(300L)
+                .helpText("Seconds a successful verification is trusted").add()
+            .property().name(CREDENTIAL_CACHE_NEGATIVE_TTL).type("long").defaultValue(30L)
+                .helpText("Seconds credentials rejected by Bizbox are rejected locally").add()
+            .property().name(CREDENTIAL_CACHE_MAX_SIZE).type("long").defaultValue(10000L)
+                .helpText("Maximum number of cached verifications").add()
+            .property().name(CREDENTIAL_HASH_ITERATIONS).type("int").defaultValue(10000)
+                .helpText("PBKDF2 iterations of the cached password verifier").add()
+            .property().name(PROFILE_CACHE_ENABLED).type("boolean").defaultValue(false)
+                .helpText("Cache Bizbox profiles per login id and refresh them in the background").add()
+            .property().name(PROFILE_CACHE_TTL).type("long").defaultValue(600L)
+                .helpText("Seconds after which a cached profile is no longer served").add()
+            .property().name(PROFILE_CACHE_REFRESH_AHEAD).type("long").defaultValue(120L)
+                .helpText("Seconds before expiry at which a cached profile is refreshed in the background").add()
+            .property().name(PROFILE_CACHE_MAX_SIZE).type("long").defaultValue(10000L)
+                .helpText("Maximum number of cached profiles").add()
+            .property().name(PROFILE_REFRESH_THREADS).type("int").defaultValue(2)
+                .helpText("Number of background profile refresh threads").add()
+            .property().name(SINGLE_FLIGHT_ENABLED).type("boolean").defaultValue(true)
+                .helpText("Let concurrent logins with the same username and password share one Bizbox login").add()
+            .property().name(SINGLE_FLIGHT_MAX_WAITERS).type("int").defaultValue(64)
+                .helpText("Maximum number of logins waiting for one shared Bizbox login, further logins fail fast").add()
+            .property().name(PROFILE_SYNC_DEFERRED).type("boolean").defaultValue(false)
+                .helpText("Run the pool syncing profiles after the login, used by executions enabling Deferred profile sync").add()
+            .property().name(PROFILE_SYNC_THREADS).type("int").defaultValue(2)
+                .helpText("Number of threads syncing profiles after the login").add()
+            .property().name(PROFILE_SYNC_QUEUE_SIZE).type("int").defaultValue(1000)
+                .helpText("Maximum number of profile syncs waiting for a thread, further logins sync inline").add()
+            .property().name(METRICS_ENABLED).type("boolean").defaultValue(true)
+                .helpText("Publish Bizbox login phase timers, outcome counters and pool gauges on the Keycloak metrics endpoint").add()
+            .property().name(SERVICE_USERNAME).type("string")
+                .helpText("Bizbox service account used for the shared service session").add()
+            .property().name(SERVICE_PASSWORD).type("string").secret(true)
+                .helpText("Password of the Bizbox service account").add()
+            .property().name(SERVICE_SESSION_MAX_AGE).type("long").defaultValue(1200L)
+                .helpText("Seconds after which the service session is renewed").add()
+            .property().name(SERVICE_SESSION_PROFILES).type("boolean").defaultValue(false)
+                .helpText("Read profiles with the shared service session instead of the session of each login").add()
+            .property().name(SESSION_LOGOUT_ENABLED).type("boolean").defaultValue(true)
+                .helpText("Log out Bizbox sessions of logins in the background once they are no longer needed").add()
+            .property().name(SESSION_LOGOUT_INTERVAL).type("long").defaultValue(1000L)
+                .helpText("Milliseconds between background logout batches").add()
+            .property().name(SESSION_LOGOUT_BATCH_SIZE).type("int").defaultValue(50)
+                .helpText("Maximum number of Bizbox sessions logged out per batch").add()
+            .property().name(SESSION_LOGOUT_QUEUE_SIZE).type("int").defaultValue(10000)
+                .helpText("Maximum number of sessions waiting for logout, further sessions are left to time out").add()
+            .property().name(ORG_SYNC_REALMS).type("string")
+                .helpText("Comma separated realms the Bizbox organization is imported into, empty disables the import").add()
+            .property().name(ORG_SYNC_INTERVAL).type("long").defaultValue(3600L)
+                .helpText("Seconds between organization imports").add()
+            .property().name(ORG_SYNC_BATCH_SIZE).type("int").defaultValue(100)
+                .helpText("Number of users imported per transaction").add()
+            .property().name(CLUSTER_CACHE_ENABLED).type("boolean").defaultValue(false)
+                .helpText("Keep the credential and profile caches in an Infinispan cache shared by every node of the cluster").add()
+            .property().name(CLUSTER_CACHE_NAME).type("string").defaultValue("bizbox")
+                .helpText("Name of the Infinispan cache, defined by the provider unless the Keycloak cache configuration defines it").add()
+            .property().name(CLUSTER_CACHE_MODE).type("string").defaultValue("replicated")
+                .helpText("replicated or distributed, used when the provider defines the cache").add()
+            .property().name(ENDPOINTS).type("string")
+                .helpText("Comma separated base URLs of the Bizbox web nodes, defaults to BIZBOX_API_URL").add()
+            .property().name(LOAD_BALANCING_POLICY).type("string").defaultValue("round-robin")
+                .helpText("How logins pick a node: round-robin, least-in-flight or latency-weighted").add()
+            .property().name(HEALTH_CHECK_INTERVAL).type("long").defaultValue(5000L)
+                .helpText("Milliseconds between health probes of each node, 0 disables probing and ejection").add()
+            .property().name(HEALTH_CHECK_PATH).type("string").defaultValue("/gw/uat/uia/egovLoginUsr.do")
+                .helpText("Path probed on each node, healthy when answered with a status below 500").add()
+            .property().name(HEALTH_CHECK_UNHEALTHY_THRESHOLD).type("int").defaultValue(3)
+                .helpText("Consecutive failed probes or calls after which a node is ejected").add()
+            .property().name(HEALTH_CHECK_HEALTHY_THRESHOLD).type("int").defaultValue(2)
+                .helpText("Consecutive good probes after which an ejected node is used again").add()
+            .property().name(RATE_LIMIT_ENABLED).type("boolean").defaultValue(false)
+                .helpText("Reject logins locally once a username or client address exceeds its rate, before Bizbox is called").add()
+            .property().name(RATE_LIMIT_USERNAME_BURST).type("int").defaultValue(5)
+                .helpText("Logins of one username sent to Bizbox at once").add()
+            .property().name(RATE_LIMIT_USERNAME_PER_MINUTE).type("int").defaultValue(10)
+                .helpText("Logins of one username sent to Bizbox per minute after the burst").add()
+            .property().name(RATE_LIMIT_ADDRESS_BURST).type("int").defaultValue(30)
+                .helpText("Logins from one client address sent to Bizbox at once").add()
+            .property().name(RATE_LIMIT_ADDRESS_PER_MINUTE).type("int").defaultValue(120)
+                .helpText("Logins from one client address sent to Bizbox per minute after the burst").add()
+            .property().name(RATE_LIMIT_MAX_SIZE).type("long").defaultValue(100000L)
+                .helpText("Maximum number of username and of address buckets").add()
+            .property().name(DEGRADED_MODE_ENABLED).type("boolean").defaultValue(false)
+                .helpText("Accept logins with the password of the user's last successful Bizbox login while Bizbox is down").add()
+            .property().name(DEGRADED_MODE_GRACE).type("long").defaultValue(86400L)
+                .helpText("Seconds after a successful Bizbox login during which its password is accepted without Bizbox").add()
+            .property().name(DEGRADED_MODE_HASH_ITERATIONS).type("int").defaultValue(27500)
+                .helpText("PBKDF2 iterations of the last-known-good verifier stored on the user").add()
+            .property().name(CREDENTIAL_MIGRATION_ENABLED).type("boolean").defaultValue(false)
+                .helpText("Store passwords accepted by Bizbox as Keycloak passwords and verify later logins locally").add()
+            .property().name(CREDENTIAL_MIGRATION_MAX_AGE).type("long").defaultValue(604800L)
+                .helpText("Seconds after the last Bizbox verification during which a migrated password is verified locally").add()
+            .property().name(CREDENTIAL_RECHECK_INTERVAL).type("long").defaultValue(3600L)
+                .helpText("Seconds between re-checks of migrated passwords against the Bizbox member list, 0 disables them").add()
+            .property().name(CREDENTIAL_RECHECK_SAMPLE_SIZE).type("int").defaultValue(500)
+                .helpText("Migrated users re-checked per realm per run").add()
+            .property().name(WARMUP_ENABLED).type("boolean").defaultValue(true)
+                .helpText("Resolve the endpoints, open connections and run synthetic logins locally before Keycloak takes requests").add()
+            .property().name(WARMUP_CONNECTIONS).type("int").defaultValue(4)
+                .helpText("Connections opened to every endpoint during the warm-up").add()
+            .property().name(WARMUP_ITERATIONS).type("int").defaultValue(200)
+                .helpText("Synthetic logins run locally during the warm-up").add()
+            .property().name(WARMUP_TIMEOUT).type("long").defaultValue(10000L)
+                .helpText("Milliseconds the warm-up of all Bizbox backends may delay the startup").add()
+            .build();
     }
 
     @Override
     public boolean isConfigurable() {
-        return false;
+        return true;
     }
 
     @Override
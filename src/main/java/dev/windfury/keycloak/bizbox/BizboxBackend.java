@@ -0,0 +1,384 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.keycloak.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything that talks to one Bizbox installation: its own pooled http client, endpoints, api, caches and sessions.
+ * Backends share nothing but the metrics, so a slow Bizbox only exhausts its own pool.
+ */
+public class BizboxBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(BizboxBackend.class);
+
+    private final String name;
+
+    private CloseableHttpClient httpClient;
+
+    private BizboxEndpoints endpoints;
+
+    private BizboxExternalApi api;
+
+    private BizboxCredentialCache credentialCache;
+
+    private BizboxProfileCache profileCache;
+
+    private BizboxSingleFlight singleFlight;
+
+    private BizboxProfileSync profileSync;
+
+    private BizboxRateLimiter rateLimiter;
+
+    private BizboxDegradedMode degradedMode;
+
+    private BizboxCredentialMigration credentialMigration;
+
+    private BizboxSessionReaper sessionReaper;
+
+    private BizboxServiceSession serviceSession;
+
+    private boolean serviceSessionProfiles;
+
+    private BizboxMetrics metrics;
+
+    private BizboxBackend(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name name of the backend in logs, metrics and the provider info page
+     * @param config provider options of the backend
+     * @param metrics metrics shared by every backend
+     */
+    static BizboxBackend create(String name, Config.Scope config, BizboxMetrics metrics) {
+        BizboxBackend backend = new BizboxBackend(name);
+        try {
+            backend.init(config, metrics);
+        } catch (RuntimeException e) {
+            backend.close();
+            throw e;
+        }
+        return backend;
+    }
+
+    private void init(Config.Scope config, BizboxMetrics metrics) {
+        this.metrics = metrics;
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(config.getInt(BizboxAuthenticatorFactory.CONNECT_TIMEOUT, 3000))
+            .setSocketTimeout(config.getInt(BizboxAuthenticatorFactory.SOCKET_TIMEOUT, 5000))
+            .setConnectionRequestTimeout(config.getInt(BizboxAuthenticatorFactory.CONNECTION_REQUEST_TIMEOUT, 1000))
+            .build();
+        httpClient = buildHttpClient(config, requestConfig, metrics);
+        BizboxCircuitBreaker.Settings breakerSettings = null;
+        if (config.getBoolean(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_ENABLED, true)) {
+            breakerSettings = new BizboxCircuitBreaker.Settings(
+                config.getInt(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_FAILURE_RATE, 50),
+                config.getInt(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_SLOW_CALL_RATE, 80),
+                Duration.ofMillis(config.getLong(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_SLOW_CALL_DURATION, 3000L)),
+                config.getInt(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_WINDOW_SIZE, 50),
+                config.getInt(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_MINIMUM_CALLS, 20),
+                Duration.ofMillis(config.getLong(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_OPEN_DURATION, 30000L)),
+                config.getInt(BizboxAuthenticatorFactory.CIRCUIT_BREAKER_HALF_OPEN_CALLS, 3));
+            log.info("Bizbox {} circuit breakers: {}", name, breakerSettings);
+        }
+        endpoints = buildEndpoints(config, requestConfig);
+        api = new BizboxExternalApi(httpClient, endpoints, requestConfig,
+            Duration.ofMillis(config.getLong(BizboxAuthenticatorFactory.LOGIN_TIMEOUT, 10000L)), breakerSettings, metrics);
+        if (config.getBoolean(BizboxAuthenticatorFactory.CREDENTIAL_CACHE_ENABLED, false)) {
+            credentialCache = new BizboxCredentialCache(
+                Duration.ofSeconds(config.getLong(BizboxAuthenticatorFactory.CREDENTIAL_CACHE_TTL, 300L)),
+                Duration.ofSeconds(config.getLong(BizboxAuthenticatorFactory.CREDENTIAL_CACHE_NEGATIVE_TTL, 30L)),
+                config.getLong(BizboxAuthenticatorFactory.CREDENTIAL_CACHE_MAX_SIZE, 10000L),
+                config.getInt(BizboxAuthenticatorFactory.CREDENTIAL_HASH_ITERATIONS, 10000));
+            log.info("Bizbox {} credential cache enabled", name);
+        }
+        if (config.getBoolean(BizboxAuthenticatorFactory.PROFILE_CACHE_ENABLED, false)) {
+            profileCache = new BizboxProfileCache(
+                Duration.ofSeconds(config.getLong(BizboxAuthenticatorFactory.PROFILE_CACHE_TTL, 600L)),
+                Duration.ofSeconds(config.getLong(BizboxAuthenticatorFactory.PROFILE_CACHE_REFRESH_AHEAD, 120L)),
+                config.getLong(BizboxAuthenticatorFactory.PROFILE_CACHE_MAX_SIZE, 10000L),
+                config.getInt(BizboxAuthenticatorFactory.PROFILE_REFRESH_THREADS, 2),
+                metrics);
+            log.info("Bizbox {} profile cache enabled", name);
+        }
+        if (config.getBoolean(BizboxAuthenticatorFactory.SINGLE_FLIGHT_ENABLED, true)) {
+            singleFlight = new BizboxSingleFlight(config.getInt(BizboxAuthenticatorFactory.SINGLE_FLIGHT_MAX_WAITERS, 64));
+        }
+        if (config.getBoolean(BizboxAuthenticatorFactory.PROFILE_SYNC_DEFERRED, false)) {
+            profileSync = new BizboxProfileSync(config.getInt(BizboxAuthenticatorFactory.PROFILE_SYNC_THREADS, 2),
+                config.getInt(BizboxAuthenticatorFactory.PROFILE_SYNC_QUEUE_SIZE, 1000));
+            log.info("Bizbox {} profiles of returning users are synced after the login", name);
+        }
+        if (config.getBoolean(BizboxAuthenticatorFactory.RATE_LIMIT_ENABLED, false)) {
+            rateLimiter = new BizboxRateLimiter(
+                config.getInt(BizboxAuthenticatorFactory.RATE_LIMIT_USERNAME_BURST, 5),
+                config.getInt(BizboxAuthenticatorFactory.RATE_LIMIT_USERNAME_PER_MINUTE, 10),
+                config.getInt(BizboxAuthenticatorFactory.RATE_LIMIT_ADDRESS_BURST, 30),
+                config.getInt(BizboxAuthenticatorFactory.RATE_LIMIT_ADDRESS_PER_MINUTE, 120),
+                config.getLong(BizboxAuthenticatorFactory.RATE_LIMIT_MAX_SIZE, 100000L));
+            log.info("Bizbox {} rate limit enabled", name);
+        }
+        if (config.getBoolean(BizboxAuthenticatorFactory.DEGRADED_MODE_ENABLED, false)) {
+            degradedMode = new BizboxDegradedMode(
+                Duration.ofSeconds(config.getLong(BizboxAuthenticatorFactory.DEGRADED_MODE_GRACE, 86400L)),
+                config.getInt(BizboxAuthenticatorFactory.DEGRADED_MODE_HASH_ITERATIONS, 27500));
+            log.info("Bizbox {} degraded mode enabled, grace {}s", name, degradedMode.getGrace().toSeconds());
+        }
+        if (config.getBoolean(BizboxAuthenticatorFactory.CREDENTIAL_MIGRATION_ENABLED, false)) {
+            credentialMigration = new BizboxCredentialMigration(name,
+                Duration.ofSeconds(config.getLong(BizboxAuthenticatorFactory.CREDENTIAL_MIGRATION_MAX_AGE, 604800L)));
+            log.info("Bizbox {} passwords are migrated into Keycloak, max age {}s", name, credentialMigration.getMaxAge().toSeconds());
+        }
+        if (config.getBoolean(BizboxAuthenticatorFactory.SESSION_LOGOUT_ENABLED, true)) {
+            sessionReaper = new BizboxSessionReaper(api,
+                Duration.ofMillis(config.getLong(BizboxAuthenticatorFactory.SESSION_LOGOUT_INTERVAL, 1000L)),
+                config.getInt(BizboxAuthenticatorFactory.SESSION_LOGOUT_BATCH_SIZE, 50),
+                config.getInt(BizboxAuthenticatorFactory.SESSION_LOGOUT_QUEUE_SIZE, 10000));
+        }
+        String serviceUsername = config.get(BizboxAuthenticatorFactory.SERVICE_USERNAME);
+        String servicePassword = config.get(BizboxAuthenticatorFactory.SERVICE_PASSWORD);
+        if (serviceUsername != null && servicePassword != null) {
+            serviceSession = new BizboxServiceSession(api, sessionReaper, serviceUsername, servicePassword,
+                Duration.ofSeconds(config.getLong(BizboxAuthenticatorFactory.SERVICE_SESSION_MAX_AGE, 1200L)));
+        }
+        serviceSessionProfiles = config.getBoolean(BizboxAuthenticatorFactory.SERVICE_SESSION_PROFILES, false);
+        if (serviceSessionProfiles) {
+            if (serviceSession == null) {
+                log.warn("{} needs {} and {}, profiles of {} are read with the user's session", BizboxAuthenticatorFactory.SERVICE_SESSION_PROFILES,
+                    BizboxAuthenticatorFactory.SERVICE_USERNAME, BizboxAuthenticatorFactory.SERVICE_PASSWORD, name);
+                serviceSessionProfiles = false;
+            } else {
+                log.info("Bizbox {} profiles are read with the service session of {}", name, serviceUsername);
+            }
+        }
+    }
+
+    /**
+     * Builds the keep-alive client of this backend.
+     * Cookie management is disabled because each Bizbox login carries its own JSESSIONID header.
+     * @param config provider options of the backend
+     * @param requestConfig default per-hop timeouts
+     * @return pooled http client
+     */
+    private CloseableHttpClient buildHttpClient(Config.Scope config, RequestConfig requestConfig, BizboxMetrics metrics) {
+        int poolSize = config.getInt(BizboxAuthenticatorFactory.CONNECTION_POOL_SIZE, 100);
+        int perRoute = config.getInt(BizboxAuthenticatorFactory.CONNECTIONS_PER_ROUTE, 50);
+        long idleTimeout = config.getLong(BizboxAuthenticatorFactory.CONNECTION_IDLE_TIMEOUT, 30L);
+        long ttl = config.getLong(BizboxAuthenticatorFactory.CONNECTION_TTL, 300L);
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(ttl, TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(poolSize);
+        connectionManager.setDefaultMaxPerRoute(perRoute);
+        connectionManager.setValidateAfterInactivity(config.getInt(BizboxAuthenticatorFactory.VALIDATE_AFTER_INACTIVITY, 2000));
+        metrics.bindConnectionPool(name, connectionManager);
+
+        log.info("Bizbox {} connection pool: maxTotal={}, maxPerRoute={}, idleTimeout={}s, ttl={}s", name, poolSize, perRoute, idleTimeout, ttl);
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .disableCookieManagement()
+            .evictExpiredConnections()
+            .evictIdleConnections(idleTimeout, TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * Reads the Bizbox nodes from the endpoints option, or from {@code BIZBOX_API_URL}, and starts probing them when
+     * there are several.
+     * @param config provider options of the backend
+     * @param requestConfig timeouts of a health probe
+     */
+    private BizboxEndpoints buildEndpoints(Config.Scope config, RequestConfig requestConfig) {
+        String[] configured = config.getArray(BizboxAuthenticatorFactory.ENDPOINTS);
+        List<String> urls = configured != null && configured.length > 0
+            ? BizboxEndpoints.split(String.join(",", configured)) : BizboxEndpoints.split(BizboxExternalApi.API_URL);
+        if (urls.isEmpty()) {
+            throw new IllegalStateException("No Bizbox endpoint, set BIZBOX_API_URL or the " + BizboxAuthenticatorFactory.ENDPOINTS + " option");
+        }
+        BizboxEndpoints result = new BizboxEndpoints(urls,
+            BizboxEndpoints.Policy.parse(config.get(BizboxAuthenticatorFactory.LOAD_BALANCING_POLICY, "round-robin")));
+        long interval = config.getLong(BizboxAuthenticatorFactory.HEALTH_CHECK_INTERVAL, 5000L);
+        if (urls.size() > 1) {
+            log.info("Bizbox {} endpoints {}, {}", name, urls, result.getPolicy());
+            if (interval > 0) {
+                result.startHealthChecks(httpClient, requestConfig,
+                    config.get(BizboxAuthenticatorFactory.HEALTH_CHECK_PATH, "/gw/uat/uia/egovLoginUsr.do"), Duration.ofMillis(interval), config.getInt(BizboxAuthenticatorFactory.HEALTH_CHECK_UNHEALTHY_THRESHOLD, 3),
+                    config.getInt(BizboxAuthenticatorFactory.HEALTH_CHECK_HEALTHY_THRESHOLD, 2));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the caches of this backend into the cluster cache.
+     */
+    void useClusterCache(BizboxClusterCache clusterCache) {
+        if (credentialCache != null) {
+            credentialCache.useClusterCache(clusterCache);
+        }
+        if (profileCache != null) {
+            profileCache.useClusterCache(clusterCache);
+        }
+    }
+
+    /**
+     * Drops the cached verification and profile of a user.
+     */
+    void invalidate(String username) {
+        if (credentialCache != null) {
+            credentialCache.invalidate(username);
+        }
+        if (profileCache != null) {
+            profileCache.invalidate(username);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BizboxExternalApi getApi() {
+        return api;
+    }
+
+    CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return verification cache, null when disabled
+     */
+    public BizboxCredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
+    /**
+     * @return profile cache, null when disabled
+     */
+    public BizboxProfileCache getProfileCache() {
+        return profileCache;
+    }
+
+    /**
+     * @return coalescing of identical concurrent logins, null when disabled
+     */
+    public BizboxSingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * @return profile sync of returning users after their login, null to sync every login inline
+     */
+    public BizboxProfileSync getProfileSync() {
+        return profileSync;
+    }
+
+    /**
+     * @return admission control of logins sent to Bizbox, null when disabled
+     */
+    public BizboxRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return last-known-good verifiers used while Bizbox cannot answer, null when disabled
+     */
+    public BizboxDegradedMode getDegradedMode() {
+        return degradedMode;
+    }
+
+    /**
+     * @return migration of passwords into Keycloak, null when disabled
+     */
+    public BizboxCredentialMigration getCredentialMigration() {
+        return credentialMigration;
+    }
+
+    /**
+     * @return background logout of user sessions, null when disabled
+     */
+    public BizboxSessionReaper getSessionReaper() {
+        return sessionReaper;
+    }
+
+    /**
+     * @return session of the service account, null without one
+     */
+    public BizboxServiceSession getServiceSession() {
+        return serviceSession;
+    }
+
+    /**
+     * @return session profiles are read with, null to read them with the user's session
+     */
+    public BizboxServiceSession getProfileSession() {
+        return serviceSessionProfiles ? serviceSession : null;
+    }
+
+    boolean hasCaches() {
+        return credentialCache != null || profileCache != null;
+    }
+
+    /**
+     * @return state of the endpoints and circuit breakers for the provider info page, keyed with the given prefix
+     */
+    Map<String, String> describe(String prefix) {
+        Map<String, String> info = new LinkedHashMap<>();
+        if (api != null) {
+            info.put(prefix + "endpoints", endpoints.describe());
+            info.put(prefix + "loadBalancingPolicy", endpoints.getPolicy().name());
+            for (BizboxCircuitBreaker breaker : api.getCircuitBreakers()) {
+                info.put(prefix + "circuitBreaker." + breaker.getName(), breaker.describe());
+            }
+            if (!api.getCircuitBreakers().isEmpty()) {
+                info.put(prefix + "circuitBreaker.settings", api.getCircuitBreakers().get(0).getSettings().toString());
+            }
+        }
+        return info;
+    }
+
+    public void close() {
+        //the discarded refreshes of the profile cache hand their sessions to the reaper
+        if (profileCache != null) {
+            profileCache.close();
+            profileCache = null;
+        }
+        if (sessionReaper != null) {
+            sessionReaper.close();
+            sessionReaper = null;
+        }
+        if (profileSync != null) {
+            profileSync.close();
+            profileSync = null;
+        }
+        if (api != null) {
+            api.close();
+            api = null;
+        }
+        if (endpoints != null) {
+            endpoints.close();
+            endpoints = null;
+        }
+        if (httpClient != null) {
+            metrics.unbindConnectionPool(name);
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Failed to close Bizbox {} http client", name, e);
+            }
+            httpClient = null;
+        }
+    }
+}
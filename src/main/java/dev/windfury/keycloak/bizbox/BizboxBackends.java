@@ -0,0 +1,300 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.Config;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Bizbox backends of the provider. The provider options describe the default backend. An authenticator execution
+ * whose configuration sets any of the {@link #PROPERTIES} gets a backend built from those values on top of the
+ * provider options, with its own connection pool. Such backends are created by the first login through the
+ * configuration, replaced and closed by the first login after the configuration was edited, and otherwise live until
+ * the provider is closed.
+ */
+public class BizboxBackends {
+
+    /**
+     * Authenticator configuration properties that select a backend of their own.
+     */
+    static final List<String> PROPERTIES = List.of(
+        BizboxAuthenticatorFactory.ENDPOINTS,
+        BizboxAuthenticatorFactory.CONNECT_TIMEOUT,
+        BizboxAuthenticatorFactory.SOCKET_TIMEOUT,
+        BizboxAuthenticatorFactory.LOGIN_TIMEOUT,
+        BizboxAuthenticatorFactory.CONNECTION_POOL_SIZE,
+        BizboxAuthenticatorFactory.CREDENTIAL_CACHE_TTL,
+        BizboxAuthenticatorFactory.PROFILE_CACHE_TTL,
+        BizboxAuthenticatorFactory.SERVICE_USERNAME,
+        BizboxAuthenticatorFactory.SERVICE_PASSWORD);
+
+    static final String DEFAULT_NAME = "default";
+
+    private static final Logger log = LoggerFactory.getLogger(BizboxBackends.class);
+
+    /**
+     * Provider options overridden by the configuration of an execution. The service account of the provider options
+     * belongs to the default Bizbox and is not inherited by a backend with endpoints of its own.
+     */
+    private static final class OverrideScope implements Config.Scope {
+        private final Map<String, String> overrides;
+        private final Config.Scope fallback;
+        private final boolean ownBizbox;
+
+        private OverrideScope(Map<String, String> overrides, Config.Scope fallback) {
+            this.overrides = overrides;
+            this.fallback = fallback;
+            this.ownBizbox = overrides.containsKey(BizboxAuthenticatorFactory.ENDPOINTS);
+        }
+
+        @Override
+        public String get(String key) {
+            if (overrides.containsKey(key)) {
+                return overrides.get(key);
+            }
+            if (ownBizbox && (BizboxAuthenticatorFactory.SERVICE_USERNAME.equals(key)
+                || BizboxAuthenticatorFactory.SERVICE_PASSWORD.equals(key))) {
+                return null;
+            }
+            return fallback.get(key);
+        }
+
+        @Override
+        public String get(String key, String defaultValue) {
+            String value = get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public String[] getArray(String key) {
+            String value = overrides.get(key);
+            return value != null ? value.split("\\s*,\\s*") : fallback.getArray(key);
+        }
+
+        @Override
+        public Integer getInt(String key) {
+            return getInt(key, null);
+        }
+
+        @Override
+        public Integer getInt(String key, Integer defaultValue) {
+            String value = overrides.get(key);
+            return value != null ? Integer.valueOf(value) : fallback.getInt(key, defaultValue);
+        }
+
+        @Override
+        public Long getLong(String key) {
+            return getLong(key, null);
+        }
+
+        @Override
+        public Long getLong(String key, Long defaultValue) {
+            String value = overrides.get(key);
+            return value != null ? Long.valueOf(value) : fallback.getLong(key, defaultValue);
+        }
+
+        @Override
+        public Boolean getBoolean(String key) {
+            return getBoolean(key, null);
+        }
+
+        @Override
+        public Boolean getBoolean(String key, Boolean defaultValue) {
+            String value = overrides.get(key);
+            return value != null ? Boolean.valueOf(value) : fallback.getBoolean(key, defaultValue);
+        }
+
+        @Override
+        public Config.Scope scope(String... scope) {
+            return fallback.scope(scope);
+        }
+
+        @Override
+        public Set<String> getPropertyNames() {
+            Set<String> names = new HashSet<>(fallback.getPropertyNames());
+            names.addAll(overrides.keySet());
+            return names;
+        }
+
+        @Override
+        public Config.Scope root() {
+            return fallback.root();
+        }
+    }
+
+    /**
+     * Backend of an authenticator configuration and the values it was built from.
+     */
+    private static final class ConfiguredBackend {
+        private final Map<String, String> overrides;
+        private final BizboxBackend backend;
+
+        private ConfiguredBackend(Map<String, String> overrides, BizboxBackend backend) {
+            this.overrides = overrides;
+            this.backend = backend;
+        }
+    }
+
+    private final Config.Scope config;
+
+    private final BizboxMetrics metrics;
+
+    private final BizboxBackend defaultBackend;
+
+    //keyed by the id of the authenticator configuration using the backend
+    private final Map<String, ConfiguredBackend> backends = new ConcurrentHashMap<>();
+
+    private volatile BizboxClusterCache clusterCache;
+
+    /**
+     * Builds the default backend.
+     * @param config provider options
+     * @param metrics metrics shared by every backend
+     */
+    BizboxBackends(Config.Scope config, BizboxMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.defaultBackend = BizboxBackend.create(DEFAULT_NAME, config, metrics);
+    }
+
+    /**
+     * @return backend of the provider options
+     */
+    public BizboxBackend getDefault() {
+        return defaultBackend;
+    }
+
+    /**
+     * @param model configuration of the authenticator execution, or null
+     * @return backend the execution talks to, created on first use
+     * @throws NumberFormatException if an overridden number cannot be read
+     */
+    public BizboxBackend get(AuthenticatorConfigModel model) {
+        Map<String, String> overrides = overrides(model);
+        if (overrides.isEmpty()) {
+            return defaultBackend;
+        }
+        ConfiguredBackend configured = backends.get(model.getId());
+        if (configured != null && configured.overrides.equals(overrides)) {
+            return configured.backend;
+        }
+        BizboxBackend[] replaced = new BizboxBackend[1];
+        configured = backends.compute(model.getId(), (id, existing) -> {
+            if (existing != null && existing.overrides.equals(overrides)) {
+                return existing;
+            }
+            replaced[0] = existing != null ? existing.backend : null;
+            return new ConfiguredBackend(overrides, create(model, overrides));
+        });
+        if (replaced[0] != null) {
+            //logins still running on the replaced backend fail like on a provider restart
+            log.info("Authenticator config {} changed, closing Bizbox {}", model.getAlias(), replaced[0].getName());
+            replaced[0].close();
+        }
+        return configured.backend;
+    }
+
+    private BizboxBackend create(AuthenticatorConfigModel model, Map<String, String> overrides) {
+        //stable on every node, so the backend finds its entries in the cluster cache, and free of secrets
+        String name = "backend-" + digest(model.getId(), overrides);
+        log.info("Creating Bizbox {} for authenticator config {}", name, model.getAlias());
+        BizboxBackend backend = BizboxBackend.create(name, new OverrideScope(overrides, config), metrics);
+        BizboxClusterCache cluster = clusterCache;
+        if (cluster != null) {
+            backend.useClusterCache(cluster.withPrefix(name + "/"));
+        }
+        return backend;
+    }
+
+    /**
+     * @return hex SHA-256 prefix of the configuration id and the overridden properties, without the service password
+     */
+    private static String digest(String configId, Map<String, String> overrides) {
+        StringBuilder values = new StringBuilder(configId);
+        overrides.forEach((property, value) -> {
+            if (!BizboxAuthenticatorFactory.SERVICE_PASSWORD.equals(property)) {
+                values.append('\u0000').append(property).append('=').append(value);
+            }
+        });
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(values.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static Map<String, String> overrides(AuthenticatorConfigModel model) {
+        Map<String, String> overrides = new TreeMap<>();
+        if (model != null && model.getConfig() != null) {
+            for (String property : PROPERTIES) {
+                String value = model.getConfig().get(property);
+                //the admin console stores cleared fields as empty strings
+                if (value != null && !value.isBlank()) {
+                    overrides.put(property, value.trim());
+                }
+            }
+        }
+        return overrides;
+    }
+
+    /**
+     * @return the default backend followed by the backends created so far
+     */
+    public List<BizboxBackend> all() {
+        List<BizboxBackend> all = new ArrayList<>(backends.size() + 1);
+        all.add(defaultBackend);
+        for (ConfiguredBackend configured : backends.values()) {
+            all.add(configured.backend);
+        }
+        return all;
+    }
+
+    boolean hasCaches() {
+        return defaultBackend.hasCaches();
+    }
+
+    /**
+     * Moves the caches of every backend, including those created later, into the cluster cache. The default backend
+     * uses the keys as they are, other backends prefix them with their name.
+     */
+    void useClusterCache(BizboxClusterCache cluster) {
+        clusterCache = cluster;
+        defaultBackend.useClusterCache(cluster);
+        for (ConfiguredBackend configured : backends.values()) {
+            configured.backend.useClusterCache(cluster.withPrefix(configured.backend.getName() + "/"));
+        }
+    }
+
+    /**
+     * Drops the cached verification and profile of a user in every backend created on this node.
+     */
+    void invalidate(String username) {
+        for (BizboxBackend backend : all()) {
+            backend.invalidate(username);
+        }
+    }
+
+    void close() {
+        for (ConfiguredBackend configured : backends.values()) {
+            configured.backend.close();
+        }
+        backends.clear();
+        defaultBackend.close();
+    }
+}
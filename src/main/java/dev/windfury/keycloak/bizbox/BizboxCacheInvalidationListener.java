@@ -0,0 +1,75 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Drops the cached Bizbox verification and profile of a user when the user logs out or is changed in Keycloak,
+ * so the next login of the user goes to Bizbox again. Deleted users are handled by the authenticator factory.
+ */
+public class BizboxCacheInvalidationListener implements EventListenerProvider {
+
+    private static final Set<EventType> INVALIDATING_EVENTS = EnumSet.of(
+        EventType.LOGOUT,
+        EventType.UPDATE_PROFILE,
+        EventType.UPDATE_EMAIL,
+        EventType.UPDATE_PASSWORD,
+        EventType.RESET_PASSWORD,
+        EventType.DELETE_ACCOUNT);
+
+    private static final String USERS_PATH = "users/";
+
+    private final KeycloakSession session;
+
+    private final BizboxAuthenticatorFactory authenticatorFactory;
+
+    public BizboxCacheInvalidationListener(KeycloakSession session, BizboxAuthenticatorFactory authenticatorFactory) {
+        this.session = session;
+        this.authenticatorFactory = authenticatorFactory;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (event.getError() == null && INVALIDATING_EVENTS.contains(event.getType())) {
+            invalidate(event.getRealmId(), event.getUserId());
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        if (event.getResourceType() != ResourceType.USER || event.getOperationType() == OperationType.DELETE
+            || event.getResourcePath() == null || !event.getResourcePath().startsWith(USERS_PATH)) {
+            return;
+        }
+        //users/{id}, users/{id}/reset-password, users/{id}/logout, ...
+        String path = event.getResourcePath().substring(USERS_PATH.length());
+        int end = path.indexOf('/');
+        invalidate(event.getRealmId(), end < 0 ? path : path.substring(0, end));
+    }
+
+    private void invalidate(String realmId, String userId) {
+        if (realmId == null || userId == null) {
+            return;
+        }
+        RealmModel realm = session.realms().getRealm(realmId);
+        UserModel user = realm != null ? session.users().getUserById(realm, userId) : null;
+        if (user != null) {
+            authenticatorFactory.invalidate(user.getUsername());
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,47 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.Config;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Creates {@link BizboxCacheInvalidationListener}s. The listener is global, so it receives the events of every realm
+ * without being added to the event listeners of a realm.
+ */
+public class BizboxCacheInvalidationListenerFactory implements EventListenerProviderFactory {
+
+    public static final String PROVIDER_ID = "bizbox-cache-invalidation";
+
+    private BizboxAuthenticatorFactory authenticatorFactory;
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new BizboxCacheInvalidationListener(session, authenticatorFactory);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        authenticatorFactory = (BizboxAuthenticatorFactory) factory.getProviderFactory(Authenticator.class, BizboxAuthenticatorFactory.PROVIDER_ID);
+    }
+
+    @Override
+    public boolean isGlobal() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -0,0 +1,220 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Circuit breaker of one path on one Bizbox node.
+ * Outcomes of the last calls are kept in a count-based sliding window. When the failure rate or the slow-call rate
+ * reaches its threshold the breaker opens and calls fail fast. After the open duration a limited number of probe
+ * calls is let through (half-open). The breaker closes again if all probes succeed and re-opens on the first bad one.
+ */
+public class BizboxCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thresholds shared by the breakers of every endpoint.
+     */
+    public static class Settings {
+        private final int failureRateThreshold;
+        private final int slowCallRateThreshold;
+        private final Duration slowCallDuration;
+        private final int windowSize;
+        private final int minimumCalls;
+        private final Duration openDuration;
+        private final int halfOpenCalls;
+
+        /**
+         * @param failureRateThreshold failure percentage at which the breaker opens
+         * @param slowCallRateThreshold slow-call percentage at which the breaker opens
+         * @param slowCallDuration duration above which a call counts as slow
+         * @param windowSize number of recent calls the rates are computed over
+         * @param minimumCalls number of calls needed before the rates are evaluated
+         * @param openDuration time the breaker stays open before probing
+         * @param halfOpenCalls number of probe calls allowed while half-open
+         */
+        public Settings(int failureRateThreshold, int slowCallRateThreshold, Duration slowCallDuration, int windowSize,
+                        int minimumCalls, Duration openDuration, int halfOpenCalls) {
+            this.failureRateThreshold = failureRateThreshold;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            this.slowCallDuration = slowCallDuration;
+            this.windowSize = Math.max(1, windowSize);
+            this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+            this.openDuration = openDuration;
+            this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        }
+
+        @Override
+        public String toString() {
+            return "failureRate>=" + failureRateThreshold + "%, slowCallRate>=" + slowCallRateThreshold
+                + "% (>" + slowCallDuration.toMillis() + "ms), window=" + windowSize + ", minimumCalls=" + minimumCalls
+                + ", open=" + openDuration.toMillis() + "ms, halfOpenCalls=" + halfOpenCalls;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(BizboxCircuitBreaker.class);
+
+    private final String name;
+    private final Settings settings;
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int index;
+    private int count;
+    private int failureCount;
+    private int slowCount;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    public BizboxCircuitBreaker(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.failures = new boolean[settings.windowSize];
+        this.slowCalls = new boolean[settings.windowSize];
+    }
+
+    /**
+     * Asks for permission to call the endpoint. Every granted call must be followed by {@link #onResult(boolean, long)}.
+     * @return false if the call must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < settings.openDuration.toMillis()) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probesIssued = 0;
+                probesSucceeded = 0;
+                // fall through, this call is the first probe
+            case HALF_OPEN:
+                if (probesIssued >= settings.halfOpenCalls) {
+                    return false;
+                }
+                probesIssued++;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Tells whether {@link #tryAcquire()} would grant a call now, without taking a probe call while half-open.
+     * @return false while calls fail fast
+     */
+    public synchronized boolean isCallPermitted() {
+        switch (state) {
+            case OPEN:
+                return System.currentTimeMillis() - openedAt >= settings.openDuration.toMillis();
+            case HALF_OPEN:
+                return probesIssued < settings.halfOpenCalls;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a call granted by {@link #tryAcquire()}.
+     * @param failed true if the call failed
+     * @param durationNanos duration of the call
+     */
+    public synchronized void onResult(boolean failed, long durationNanos) {
+        boolean slow = durationNanos > settings.slowCallDuration.toNanos();
+        switch (state) {
+            case HALF_OPEN:
+                if (failed || slow) {
+                    open();
+                } else if (++probesSucceeded >= settings.halfOpenCalls) {
+                    close();
+                }
+                break;
+            case CLOSED:
+                record(failed, slow);
+                if (count >= settings.minimumCalls
+                    && (failureCount * 100 >= settings.failureRateThreshold * count
+                        || slowCount * 100 >= settings.slowCallRateThreshold * count)) {
+                    open();
+                }
+                break;
+            default:
+                // calls that started before the breaker opened are not counted
+                break;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return state and current rates, for the server info page
+     */
+    public synchronized String describe() {
+        if (count == 0) {
+            return state.name();
+        }
+        return state + " (failureRate=" + (failureCount * 100 / count) + "%, slowCallRate=" + (slowCount * 100 / count)
+            + "%, calls=" + count + ")";
+    }
+
+    private void record(boolean failed, boolean slow) {
+        if (count == failures.length) {
+            if (failures[index]) {
+                failureCount--;
+            }
+            if (slowCalls[index]) {
+                slowCount--;
+            }
+        } else {
+            count++;
+        }
+        failures[index] = failed;
+        slowCalls[index] = slow;
+        if (failed) {
+            failureCount++;
+        }
+        if (slow) {
+            slowCount++;
+        }
+        index = (index + 1) % failures.length;
+    }
+
+    private void open() {
+        if (state != State.OPEN) {
+            log.warn("Bizbox circuit breaker {} opened: {}", name, describe());
+        }
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        reset();
+    }
+
+    private void close() {
+        log.info("Bizbox circuit breaker {} closed", name);
+        state = State.CLOSED;
+        reset();
+    }
+
+    private void reset() {
+        index = 0;
+        count = 0;
+        failureCount = 0;
+        slowCount = 0;
+        Arrays.fill(failures, false);
+        Arrays.fill(slowCalls, false);
+    }
+}
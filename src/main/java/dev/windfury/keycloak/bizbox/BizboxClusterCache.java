@@ -0,0 +1,114 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store of the credential and profile caches in an Infinispan cache of Keycloak's cache manager, so an entry written
+ * on one node is found, and removed, on every node of the cluster.
+ * Keys and values are plain strings, which Keycloak's marshalling handles without extra schemas.
+ * Entries expire with the lifespan they are written with and the cache evicts beyond its maximum count.
+ */
+public class BizboxClusterCache {
+
+    private static final Logger log = LoggerFactory.getLogger(BizboxClusterCache.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Cache<String, String> cache;
+
+    private final String prefix;
+
+    BizboxClusterCache(Cache<String, String> cache) {
+        this(cache, "");
+    }
+
+    private BizboxClusterCache(Cache<String, String> cache, String prefix) {
+        this.cache = cache;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return view of the same cache whose keys are prefixed, so several Bizbox backends can share it
+     */
+    public BizboxClusterCache withPrefix(String keyPrefix) {
+        return new BizboxClusterCache(cache, prefix + keyPrefix);
+    }
+
+    /**
+     * Returns the cache with the given name, defining it first unless the Keycloak cache configuration already does.
+     * @param session any session, only used to reach the cache manager
+     * @param name name of the cache
+     * @param distributed true for a distributed cache, false for a replicated one
+     * @param maxCount number of entries above which the cache evicts
+     */
+    public static BizboxClusterCache obtain(KeycloakSession session, String name, boolean distributed, long maxCount) {
+        InfinispanConnectionProvider provider = session.getProvider(InfinispanConnectionProvider.class);
+        EmbeddedCacheManager cacheManager = provider.getCache(InfinispanConnectionProvider.WORK_CACHE_NAME).getCacheManager();
+        if (cacheManager.getCacheConfiguration(name) == null) {
+            ConfigurationBuilder builder = new ConfigurationBuilder();
+            if (cacheManager.getCacheManagerConfiguration().isClustered()) {
+                builder.clustering().cacheMode(distributed ? CacheMode.DIST_SYNC : CacheMode.REPL_SYNC);
+            }
+            builder.memory().maxCount(maxCount);
+            cacheManager.defineConfiguration(name, builder.build());
+            log.info("Defined Bizbox cache {}: {}, max {} entries", name,
+                cacheManager.getCacheManagerConfiguration().isClustered() ? (distributed ? "distributed" : "replicated") : "local",
+                maxCount);
+        } else {
+            log.info("Using Bizbox cache {} of the Keycloak cache configuration", name);
+        }
+        return new BizboxClusterCache(cacheManager.getCache(name));
+    }
+
+    public String get(String key) {
+        return cache.get(prefix + key);
+    }
+
+    public void put(String key, String value, Duration lifespan) {
+        cache.put(prefix + key, value, lifespan.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the value already stored, or null if the given value was stored
+     */
+    public String putIfAbsent(String key, String value) {
+        return cache.putIfAbsent(prefix + key, value);
+    }
+
+    public void remove(String key) {
+        cache.remove(prefix + key);
+    }
+
+    static String write(User user) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(user);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize Bizbox user " + user.getUsername(), e);
+        }
+    }
+
+    /**
+     * @return user read from {@link #write}, or null if the value cannot be read, e.g. after an incompatible upgrade
+     */
+    static User read(String value) {
+        try {
+            return OBJECT_MAPPER.readValue(value, User.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring unreadable cached Bizbox user: {}", e.getMessage());
+            return null;
+        }
+    }
+}
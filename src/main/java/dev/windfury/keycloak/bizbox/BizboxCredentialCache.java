@@ -0,0 +1,180 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.windfury.keycloak.bizbox.dto.User;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Cache of Bizbox credential verifications, in memory or, once {@link #useClusterCache} was called, in a
+ * {@link BizboxClusterCache} shared by every node.
+ * Passwords are never stored, only a PBKDF2 verifier salted with a random salt, per node in memory and shared by the
+ * cluster otherwise.
+ * Successful verifications keep the mapped {@link User} so a hit can skip every Bizbox call,
+ * rejected credentials are remembered for a short time so repeated bad attempts don't reach Bizbox either.
+ */
+public class BizboxCredentialCache {
+
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int HASH_BITS = 256;
+    private static final String SALT_KEY = "salt";
+    private static final String VERIFIED_PREFIX = "verified:";
+    private static final String REJECTED_PREFIX = "rejected:";
+
+    private final Cache<String, VerifiedCredential> verified;
+    private final Cache<String, Boolean> rejected;
+    private final Duration ttl;
+    private final Duration negativeTtl;
+    private final int iterations;
+    private volatile String salt;
+    private volatile BizboxClusterCache cluster;
+
+    /**
+     * @param ttl time a successful verification is trusted
+     * @param negativeTtl time a rejected credential is remembered
+     * @param maxSize maximum number of cached users (W-TinyLFU eviction)
+     * @param iterations PBKDF2 iterations used for the verifier
+     */
+    public BizboxCredentialCache(Duration ttl, Duration negativeTtl, long maxSize, int iterations) {
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.verified = Caffeine.newBuilder()
+            .expireAfterWrite(ttl)
+            .maximumSize(maxSize)
+            .build();
+        this.rejected = Caffeine.newBuilder()
+            .expireAfterWrite(negativeTtl)
+            .maximumSize(maxSize)
+            .build();
+        this.salt = randomSalt();
+        this.iterations = iterations;
+    }
+
+    /**
+     * Moves the cache into the cluster cache. The salt is shared through the cluster cache: the first node stores
+     * its salt, the others adopt it, so a verifier computed on one node matches on every node.
+     * Entries cached in memory so far are dropped. Should the salt entry ever be evicted, nodes started later pick
+     * another salt; their verifiers then miss and are rewritten, which costs hits but never accepts a wrong password.
+     */
+    public void useClusterCache(BizboxClusterCache cluster) {
+        String ownSalt = randomSalt();
+        String sharedSalt = cluster.putIfAbsent(SALT_KEY, ownSalt);
+        this.salt = sharedSalt != null ? sharedSalt : ownSalt;
+        this.cluster = cluster;
+        verified.invalidateAll();
+        rejected.invalidateAll();
+    }
+
+    /**
+     * Computes the salted slow hash of a password. Callers compute it once per login and reuse it for lookups and puts.
+     * @param username username of the user
+     * @param password password as received in the form
+     * @return Base64 encoded verifier
+     */
+    public String verifier(String username, String password) {
+        byte[] userSalt = (normalize(username) + ":" + salt).getBytes(StandardCharsets.UTF_8);
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), userSalt, iterations, HASH_BITS);
+        try {
+            byte[] hash = SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(spec).getEncoded();
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to hash credential", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * @return the cached user if the verifier matches a recent successful login, otherwise null
+     */
+    public User getVerified(String username, String verifier) {
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster != null) {
+            //stored as the verifier and the user as JSON, separated by a line break
+            String value = cluster.get(VERIFIED_PREFIX + normalize(username));
+            int separator = value != null ? value.indexOf('\n') : -1;
+            if (separator < 0 || !MessageDigest.isEqual(value.substring(0, separator).getBytes(StandardCharsets.US_ASCII),
+                verifier.getBytes(StandardCharsets.US_ASCII))) {
+                return null;
+            }
+            return BizboxClusterCache.read(value.substring(separator + 1));
+        }
+        VerifiedCredential credential = verified.getIfPresent(normalize(username));
+        if (credential == null || !credential.matches(verifier)) {
+            return null;
+        }
+        return credential.user;
+    }
+
+    public boolean isRejected(String username, String verifier) {
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster != null) {
+            return cluster.get(REJECTED_PREFIX + normalize(username) + ":" + verifier) != null;
+        }
+        return rejected.getIfPresent(normalize(username) + ":" + verifier) != null;
+    }
+
+    public void putVerified(String username, String verifier, User user) {
+        String key = normalize(username);
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster != null) {
+            cluster.put(VERIFIED_PREFIX + key, verifier + '\n' + BizboxClusterCache.write(user), ttl);
+            return;
+        }
+        verified.put(key, new VerifiedCredential(verifier, user));
+    }
+
+    public void putRejected(String username, String verifier) {
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster != null) {
+            cluster.put(REJECTED_PREFIX + normalize(username) + ":" + verifier, "", negativeTtl);
+            return;
+        }
+        rejected.put(normalize(username) + ":" + verifier, Boolean.TRUE);
+    }
+
+    /**
+     * Drops the successful verification of a user, on every node when the cache is shared.
+     */
+    public void invalidate(String username) {
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster != null) {
+            cluster.remove(VERIFIED_PREFIX + normalize(username));
+            return;
+        }
+        verified.invalidate(normalize(username));
+    }
+
+    private static String randomSalt() {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class VerifiedCredential {
+        private final byte[] verifier;
+        private final User user;
+
+        private VerifiedCredential(String verifier, User user) {
+            this.verifier = verifier.getBytes(StandardCharsets.US_ASCII);
+            this.user = user;
+        }
+
+        private boolean matches(String candidate) {
+            return MessageDigest.isEqual(verifier, candidate.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.ModelException;
+import org.keycloak.models.UserCredentialModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+/**
+ * Lazy migration of Bizbox passwords into the password credentials of Keycloak.
+ * A successful Bizbox login stores its password as the Keycloak password of the user, hashed with the password policy
+ * of the realm, and marks the user with the name of the backend. Later logins are verified against that credential and
+ * never reach Bizbox, until the credential is older than the maximum age; the next login then goes to Bizbox again and
+ * restamps or replaces it. Keycloak passwords the migration did not write are never touched.
+ * {@link BizboxCredentialRecheck} drops migrated credentials of users Bizbox no longer lists.
+ */
+public class BizboxCredentialMigration {
+
+    /**
+     * User attribute naming the backend whose password was migrated.
+     */
+    public static final String MIGRATED = "bizbox-migrated-password";
+
+    private static final Logger log = LoggerFactory.getLogger(BizboxCredentialMigration.class);
+
+    private final String backend;
+    private final Duration maxAge;
+
+    /**
+     * @param backend name of the backend the passwords are verified by
+     * @param maxAge time after the last Bizbox verification during which the migrated password is used alone
+     */
+    public BizboxCredentialMigration(String backend, Duration maxAge) {
+        this.backend = backend;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return true if the user is enabled and the password matches a migrated credential verified within the maximum age
+     */
+    public boolean verify(UserModel user, String password) {
+        CredentialModel credential = migrated(user);
+        return credential != null && user.isEnabled() && !isExpired(credential)
+            && user.credentialManager().isValid(UserCredentialModel.password(password));
+    }
+
+    /**
+     * Stores a password Bizbox just accepted. A migrated credential with the same password is only restamped.
+     */
+    public void migrate(UserModel user, String password) {
+        CredentialModel credential = migrated(user);
+        if (credential != null && user.credentialManager().isValid(UserCredentialModel.password(password))) {
+            credential.setCreatedDate(System.currentTimeMillis());
+            user.credentialManager().updateStoredCredential(credential);
+            return;
+        }
+        if (credential == null && user.credentialManager().getStoredCredentialsByTypeStream(PasswordCredentialModel.TYPE).findAny().isPresent()) {
+            log.debug("User {} has a Keycloak password of its own, not migrating", user.getUsername());
+            return;
+        }
+        try {
+            user.credentialManager().updateCredential(UserCredentialModel.password(password, false));
+        } catch (ModelException e) {
+            //e.g. the password policy of the realm rejects the Bizbox password, the user keeps logging in through Bizbox
+            log.warn("Password of {} not migrated: {}", user.getUsername(), e.getMessage());
+            return;
+        }
+        user.setSingleAttribute(MIGRATED, backend);
+    }
+
+    /**
+     * Drops the migrated credential if it matches a password Bizbox just rejected, i.e. the password was changed in Bizbox.
+     */
+    public void forgetIfMatches(UserModel user, String password) {
+        if (migrated(user) != null && user.credentialManager().isValid(UserCredentialModel.password(password))) {
+            forget(user);
+        }
+    }
+
+    /**
+     * Removes the migrated credential, the next login goes to Bizbox.
+     */
+    public void forget(UserModel user) {
+        if (!backend.equals(user.getFirstAttribute(MIGRATED))) {
+            return;
+        }
+        user.credentialManager().getStoredCredentialsByTypeStream(PasswordCredentialModel.TYPE)
+            .map(CredentialModel::getId)
+            .collect(Collectors.toList())
+            .forEach(user.credentialManager()::removeStoredCredentialById);
+        user.removeAttribute(MIGRATED);
+    }
+
+    /**
+     * @return true if the user is marked as migrated but the credential is older than the maximum age or gone
+     */
+    public boolean isExpired(UserModel user) {
+        if (!backend.equals(user.getFirstAttribute(MIGRATED))) {
+            return false;
+        }
+        CredentialModel credential = migrated(user);
+        return credential == null || isExpired(credential);
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    private boolean isExpired(CredentialModel credential) {
+        Long verifiedAt = credential.getCreatedDate();
+        return verifiedAt == null || System.currentTimeMillis() - verifiedAt > maxAge.toMillis();
+    }
+
+    /**
+     * @return the password credential written by the migration, or null
+     */
+    private CredentialModel migrated(UserModel user) {
+        if (!backend.equals(user.getFirstAttribute(MIGRATED))) {
+            return null;
+        }
+        return user.credentialManager().getStoredCredentialsByTypeStream(PasswordCredentialModel.TYPE).findFirst().orElse(null);
+    }
+}
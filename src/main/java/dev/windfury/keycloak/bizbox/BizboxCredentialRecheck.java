@@ -0,0 +1,123 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.timer.ScheduledTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Scheduled re-check of the passwords migrated by {@link BizboxCredentialMigration}.
+ * Each run takes the next sample of migrated users of every realm and backend and drops the credential of users that
+ * Bizbox no longer lists, e.g. after the account was disabled there, and of users whose credential outlived the maximum
+ * age, so stale hashes do not linger for users that stopped logging in. The member list is read with the service session
+ * of the backend; without one only the age is checked. A changed password is found by the next login after the
+ * maximum age, or by the first login with the new password, which fails locally and is verified by Bizbox.
+ */
+public class BizboxCredentialRecheck implements ScheduledTask {
+
+    public static final String TASK_NAME = "bizbox-credential-recheck";
+
+    private final Logger log = LoggerFactory.getLogger(BizboxCredentialRecheck.class);
+
+    private final BizboxBackends backends;
+    private final int sampleSize;
+    //backend/realm id -> first user of the next sample
+    private final Map<String, Integer> offsets = new ConcurrentHashMap<>();
+
+    /**
+     * @param backends backends whose migrated passwords are checked
+     * @param sampleSize number of migrated users checked per realm and backend per run
+     */
+    public BizboxCredentialRecheck(BizboxBackends backends, int sampleSize) {
+        this.backends = backends;
+        this.sampleSize = Math.max(1, sampleSize);
+    }
+
+    @Override
+    public String getTaskName() {
+        return TASK_NAME;
+    }
+
+    @Override
+    public void run(KeycloakSession session) {
+        List<RealmModel> realms = session.realms().getRealmsStream().collect(Collectors.toList());
+        for (BizboxBackend backend : backends.all()) {
+            BizboxCredentialMigration migration = backend.getCredentialMigration();
+            if (migration == null) {
+                continue;
+            }
+            Set<String> members = readMembers(backend);
+            for (RealmModel realm : realms) {
+                recheck(session, realm, backend, migration, members);
+            }
+        }
+    }
+
+    /**
+     * @return lower-cased login ids of every Bizbox member, or null if they cannot be read
+     */
+    private Set<String> readMembers(BizboxBackend backend) {
+        BizboxServiceSession serviceSession = backend.getServiceSession();
+        if (serviceSession == null) {
+            return null;
+        }
+        Set<String> members = new HashSet<>();
+        String token = null;
+        try {
+            token = serviceSession.token(null);
+            backend.getApi().forEachProfileMember(token, member -> {
+                if (member.getLoginId() != null) {
+                    members.add(member.getLoginId().toLowerCase(Locale.ROOT));
+                }
+            });
+        } catch (IOException e) {
+            if (e instanceof BizboxSessionExpiredException) {
+                //the next run logs in again
+                serviceSession.invalidate(token);
+            }
+            log.warn("Bizbox {} members not read, only the age of migrated passwords is checked: {}", backend.getName(), e.getMessage());
+            return null;
+        }
+        //an empty list is a Bizbox fault rather than an empty organization
+        return members.isEmpty() ? null : members;
+    }
+
+    private void recheck(KeycloakSession session, RealmModel realm, BizboxBackend backend, BizboxCredentialMigration migration,
+                         Set<String> members) {
+        String key = backend.getName() + "/" + realm.getId();
+        int offset = offsets.getOrDefault(key, 0);
+        List<UserModel> sample = session.users()
+            .searchForUserStream(realm, Map.of(BizboxCredentialMigration.MIGRATED, migration.getBackend()), offset, sampleSize)
+            .collect(Collectors.toList());
+        int dropped = 0;
+        for (UserModel user : sample) {
+            boolean removed = members != null && !members.contains(user.getUsername().toLowerCase(Locale.ROOT));
+            if (removed || migration.isExpired(user)) {
+                migration.forget(user);
+                if (removed) {
+                    backend.invalidate(user.getUsername());
+                }
+                dropped++;
+            }
+        }
+        //dropped users leave the search, the rest of the sample is skipped next time; wrap around at the end
+        offsets.put(key, sample.size() < sampleSize ? 0 : offset + sample.size() - dropped);
+        if (!sample.isEmpty()) {
+            log.debug("Bizbox {} re-checked {} migrated passwords of realm {}, {} dropped", backend.getName(), sample.size(), realm.getName(), dropped);
+        }
+        if (dropped > 0) {
+            log.info("Bizbox {} dropped {} migrated passwords of realm {}", backend.getName(), dropped, realm.getName());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One time budget shared by every Bizbox hop of a login.
+ * Each request attached to the deadline gets its timeouts capped to the remaining budget,
+ * and a timer aborts the in-flight request once the budget runs out, which unblocks the calling thread.
+ * Once closed, a deadline no longer limits requests, e.g. background refreshes that outlive the login.
+ */
+public final class BizboxDeadline implements AutoCloseable {
+
+    private final Duration budget;
+    private final long deadlineNanos;
+    private final ScheduledFuture<?> timer;
+    private volatile HttpRequestBase current;
+    private volatile boolean expired;
+    private volatile boolean closed;
+
+    private BizboxDeadline(ScheduledExecutorService scheduler, Duration budget) {
+        this.budget = budget;
+        this.deadlineNanos = System.nanoTime() + budget.toNanos();
+        this.timer = scheduler.schedule(this::expire, budget.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    static BizboxDeadline start(ScheduledExecutorService scheduler, Duration budget) {
+        return new BizboxDeadline(scheduler, budget);
+    }
+
+    /**
+     * Applies the hop timeouts, capped to the remaining budget, and makes the request the one aborted on expiry.
+     * @param request request about to be executed
+     * @param hopConfig per-hop timeouts
+     * @throws BizboxTimeoutException if the budget is already used up
+     */
+    void attach(HttpRequestBase request, RequestConfig hopConfig) throws BizboxTimeoutException {
+        if (closed) {
+            request.setConfig(hopConfig);
+            return;
+        }
+        long remaining = remainingMillis();
+        if (remaining <= 0) {
+            expire();
+            throw new BizboxTimeoutException(budget, null);
+        }
+        int cap = (int) Math.min(Integer.MAX_VALUE, remaining);
+        request.setConfig(RequestConfig.copy(hopConfig)
+            .setConnectTimeout(capped(hopConfig.getConnectTimeout(), cap))
+            .setConnectionRequestTimeout(capped(hopConfig.getConnectionRequestTimeout(), cap))
+            .setSocketTimeout(capped(hopConfig.getSocketTimeout(), cap))
+            .build());
+        current = request;
+        if (expired) {
+            request.abort();
+        }
+    }
+
+    /**
+     * @return a {@link BizboxTimeoutException} if the failure was caused by the deadline, otherwise the failure itself
+     */
+    IOException translate(IOException e) {
+        if (expired && !(e instanceof BizboxTimeoutException)) {
+            return new BizboxTimeoutException(budget, e);
+        }
+        return e;
+    }
+
+    Duration getBudget() {
+        return budget;
+    }
+
+    long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+
+    boolean isExpired() {
+        return expired;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        timer.cancel(false);
+        current = null;
+    }
+
+    private void expire() {
+        if (closed) {
+            return;
+        }
+        expired = true;
+        HttpRequestBase request = current;
+        if (request != null) {
+            request.abort();
+        }
+    }
+
+    private static int capped(int timeout, int cap) {
+        return timeout > 0 ? Math.min(timeout, cap) : cap;
+    }
+}
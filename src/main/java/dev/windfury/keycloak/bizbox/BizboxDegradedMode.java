@@ -0,0 +1,154 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.UserModel;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Last-known-good password verifier of each user, so logins can be accepted while Bizbox cannot answer.
+ * After a successful Bizbox login the user gets a PBKDF2 verifier of the password with a random salt, stored as a
+ * credential of type {@link #VERIFIER} dated with the time of the login, so it survives restarts, is seen by every node
+ * and stays out of the user attributes shown in the admin console and the REST API. The profile, roles and groups
+ * synced by {@link BizboxUserSync} stay on the user as well, so a degraded login needs nothing from Bizbox.
+ * A verifier is only trusted for the grace window after the Bizbox login that wrote it.
+ */
+public class BizboxDegradedMode {
+
+    /**
+     * Credential type of the verifier.
+     */
+    public static final String VERIFIER = "bizbox-last-known-good";
+
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Duration grace;
+    private final int iterations;
+
+    /**
+     * @param grace time after a successful Bizbox login during which its password is accepted without Bizbox
+     * @param iterations PBKDF2 iterations of new verifiers
+     */
+    public BizboxDegradedMode(Duration grace, int iterations) {
+        this.grace = grace;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Stores a verifier of a password Bizbox just accepted. A matching verifier is only rewritten once a tenth of the
+     * grace window has passed, so steady-state logins do not write the user on every login.
+     */
+    public void remember(UserModel user, String password) {
+        long now = System.currentTimeMillis();
+        CredentialModel credential = stored(user);
+        Verifier stored = credential != null ? Verifier.parse(credential) : null;
+        if (stored != null && now - stored.verifiedAt < grace.toMillis() / 10 && stored.matches(password)) {
+            return;
+        }
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder();
+        String secretData = iterations + ":" + encoder.encodeToString(salt) + ":" + encoder.encodeToString(hash(password, salt, iterations));
+        if (credential == null) {
+            credential = new CredentialModel();
+            credential.setType(VERIFIER);
+            credential.setCredentialData("{}");
+            credential.setSecretData(secretData);
+            credential.setCreatedDate(now);
+            user.credentialManager().createStoredCredential(credential);
+        } else {
+            credential.setSecretData(secretData);
+            credential.setCreatedDate(now);
+            user.credentialManager().updateStoredCredential(credential);
+        }
+    }
+
+    /**
+     * @return true if the password matches a verifier written within the grace window
+     */
+    public boolean verify(UserModel user, String password) {
+        CredentialModel credential = stored(user);
+        Verifier stored = credential != null ? Verifier.parse(credential) : null;
+        return stored != null && System.currentTimeMillis() - stored.verifiedAt <= grace.toMillis() && stored.matches(password);
+    }
+
+    /**
+     * Drops the verifier if it matches a password Bizbox just rejected, i.e. the password was changed in Bizbox.
+     */
+    public void forgetIfMatches(UserModel user, String password) {
+        CredentialModel credential = stored(user);
+        Verifier stored = credential != null ? Verifier.parse(credential) : null;
+        if (stored != null && stored.matches(password)) {
+            user.credentialManager().removeStoredCredentialById(credential.getId());
+        }
+    }
+
+    public Duration getGrace() {
+        return grace;
+    }
+
+    private static CredentialModel stored(UserModel user) {
+        return user.credentialManager().getStoredCredentialsByTypeStream(VERIFIER).findFirst().orElse(null);
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to hash credential", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Stored as the creation date of the credential and {@code <iterations>:<salt>:<hash>} in its secret data.
+     */
+    private static final class Verifier {
+        private final long verifiedAt;
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Verifier(long verifiedAt, int iterations, byte[] salt, byte[] hash) {
+            this.verifiedAt = verifiedAt;
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        /**
+         * @return the verifier, or null if it cannot be read
+         */
+        private static Verifier parse(CredentialModel credential) {
+            String value = credential.getSecretData();
+            Long verifiedAt = credential.getCreatedDate();
+            if (value == null || verifiedAt == null) {
+                return null;
+            }
+            String[] parts = value.split(":");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                Base64.Decoder decoder = Base64.getDecoder();
+                return new Verifier(verifiedAt, Integer.parseInt(parts[0]), decoder.decode(parts[1]), decoder.decode(parts[2]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private boolean matches(String password) {
+            return MessageDigest.isEqual(hash, hash(password, salt, iterations));
+        }
+    }
+}
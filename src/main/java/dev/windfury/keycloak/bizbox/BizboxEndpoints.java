@@ -0,0 +1,365 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Bizbox web nodes a login can be sent to. New logins are spread over the healthy nodes with a {@link Policy};
+ * everything that uses the session of a login afterwards goes to the node that issued it, because the JSESSIONID is
+ * only known there.
+ * A background prober ejects a node after consecutive failed probes and brings it back after consecutive good ones.
+ * While probing runs, consecutive failed calls eject a node as well. When no node is healthy every node is used.
+ * Nodes the caller reports unavailable, e.g. because their circuit breakers are open, are never chosen.
+ */
+public class BizboxEndpoints {
+
+    /**
+     * How a new login picks a node.
+     */
+    public enum Policy {
+        /** each node in turn */
+        ROUND_ROBIN,
+        /** the node with the fewest calls in flight */
+        LEAST_IN_FLIGHT,
+        /** a random node, weighted by the inverse of its recent latency */
+        LATENCY_WEIGHTED;
+
+        /**
+         * @param value policy name, e.g. round-robin, least-in-flight or latency-weighted
+         */
+        public static Policy parse(String value) {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * One Bizbox web node.
+     */
+    public static final class Endpoint {
+        //weight of the latest call in the moving average of the latency
+        private static final double LATENCY_SMOOTHING = 0.2;
+
+        private final int index;
+        private final String url;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile double latencyMillis = 1.0;
+        private volatile boolean healthy = true;
+        //counted by the prober thread, good probes are reset when calls eject the node
+        private volatile int probeFailures;
+        private volatile int probeSuccesses;
+
+        private Endpoint(int index, String url) {
+            this.index = index;
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+
+    private static final String TOKEN_SEPARATOR = "|";
+
+    private final Logger log = LoggerFactory.getLogger(BizboxEndpoints.class);
+
+    private final List<Endpoint> endpoints;
+    private final Policy policy;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile int unhealthyThreshold = Integer.MAX_VALUE;
+    private ScheduledExecutorService prober;
+
+    /**
+     * @param urls base URLs of the nodes, e.g. https://gw1.example.com
+     * @param policy how new logins pick a node
+     */
+    public BizboxEndpoints(List<String> urls, Policy policy) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No Bizbox endpoint configured");
+        }
+        List<Endpoint> list = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            String trimmed = url.trim();
+            list.add(new Endpoint(list.size(), trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.policy = policy;
+    }
+
+    /**
+     * @param value comma separated base URLs, may be null
+     * @return the URLs, empty if none
+     */
+    public static List<String> split(String value) {
+        List<String> urls = new ArrayList<>();
+        if (value != null) {
+            for (String url : value.split(",")) {
+                if (!url.isBlank()) {
+                    urls.add(url.trim());
+                }
+            }
+        }
+        return urls;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return true if at least one node is healthy, false if every node was ejected
+     */
+    public boolean hasHealthy() {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return node for a new login
+     */
+    public Endpoint choose() {
+        return choose(null, endpoint -> true);
+    }
+
+    /**
+     * @param exclude node that just failed the login, or null
+     * @return node for a new login other than the excluded one, unless it is the only node
+     */
+    public Endpoint choose(Endpoint exclude) {
+        return choose(exclude, endpoint -> true);
+    }
+
+    /**
+     * @param exclude node that just failed the login, or null
+     * @param available false for nodes that must not be chosen
+     * @return node for a new login other than the excluded one, unless it is the only node, or null if no node is
+     *         available
+     */
+    public Endpoint choose(Endpoint exclude, Predicate<Endpoint> available) {
+        if (endpoints.size() == 1) {
+            Endpoint only = endpoints.get(0);
+            return available.test(only) ? only : null;
+        }
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy && endpoint != exclude && available.test(endpoint)) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint != exclude && available.test(endpoint)) {
+                    candidates.add(endpoint);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        switch (policy) {
+            case LEAST_IN_FLIGHT: {
+                //start at a rotating offset so ties do not always pick the first node
+                int offset = Math.floorMod(next.getAndIncrement(), candidates.size());
+                Endpoint best = null;
+                for (int i = 0; i < candidates.size(); i++) {
+                    Endpoint candidate = candidates.get((offset + i) % candidates.size());
+                    if (best == null || candidate.inFlight.get() < best.inFlight.get()) {
+                        best = candidate;
+                    }
+                }
+                return best;
+            }
+            case LATENCY_WEIGHTED: {
+                double total = 0.0;
+                for (Endpoint candidate : candidates) {
+                    total += 1.0 / candidate.latencyMillis;
+                }
+                double pick = ThreadLocalRandom.current().nextDouble(total);
+                for (Endpoint candidate : candidates) {
+                    pick -= 1.0 / candidate.latencyMillis;
+                    if (pick < 0) {
+                        return candidate;
+                    }
+                }
+                return candidates.get(candidates.size() - 1);
+            }
+            default:
+                return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+        }
+    }
+
+    /**
+     * @return token of a session: the JSESSIONID, prefixed with the node that issued it when there are several nodes
+     */
+    public String token(Endpoint endpoint, String sessionId) {
+        return endpoints.size() == 1 ? sessionId : endpoint.index + TOKEN_SEPARATOR + sessionId;
+    }
+
+    /**
+     * @return node that issued the session of the token
+     */
+    public Endpoint endpointOf(String token) {
+        int separator = token != null ? token.indexOf(TOKEN_SEPARATOR) : -1;
+        if (separator > 0) {
+            try {
+                int index = Integer.parseInt(token.substring(0, separator));
+                if (index >= 0 && index < endpoints.size()) {
+                    return endpoints.get(index);
+                }
+            } catch (NumberFormatException e) {
+                //not a prefixed token, the whole value is the JSESSIONID
+            }
+        }
+        return endpoints.get(0);
+    }
+
+    /**
+     * @return JSESSIONID of the token
+     */
+    public String sessionIdOf(String token) {
+        int separator = token != null ? token.indexOf(TOKEN_SEPARATOR) : -1;
+        return separator > 0 ? token.substring(separator + 1) : token;
+    }
+
+    void started(Endpoint endpoint) {
+        endpoint.inFlight.incrementAndGet();
+    }
+
+    /**
+     * @param failed true if the call failed with an I/O error or a server error
+     */
+    void finished(Endpoint endpoint, long nanos, boolean failed) {
+        endpoint.inFlight.decrementAndGet();
+        double millis = Math.max(1.0, nanos / 1_000_000.0);
+        endpoint.latencyMillis = endpoint.latencyMillis + Endpoint.LATENCY_SMOOTHING * (millis - endpoint.latencyMillis);
+        if (!failed) {
+            endpoint.consecutiveFailures.set(0);
+        } else if (endpoint.consecutiveFailures.incrementAndGet() >= unhealthyThreshold && endpoint.healthy) {
+            endpoint.probeSuccesses = 0;
+            endpoint.healthy = false;
+            log.warn("Bizbox endpoint {} ejected after {} failed calls", endpoint.url, endpoint.consecutiveFailures.get());
+        }
+    }
+
+    /**
+     * Starts probing every node. Without probing, nodes are never ejected.
+     * @param httpClient client the probes are sent with
+     * @param requestConfig timeouts of a probe
+     * @param path path requested on each node, answered with a status below 500 by a healthy node
+     * @param interval time between probes
+     * @param unhealthyThreshold consecutive failed probes or calls after which a node is ejected
+     * @param healthyThreshold consecutive good probes after which an ejected node is used again
+     */
+    public synchronized void startHealthChecks(CloseableHttpClient httpClient, RequestConfig requestConfig, String path,
+                                               Duration interval, int unhealthyThreshold, int healthyThreshold) {
+        if (prober != null || endpoints.size() == 1) {
+            return;
+        }
+        this.unhealthyThreshold = Math.max(1, unhealthyThreshold);
+        prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bizbox-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(() -> {
+            for (Endpoint endpoint : endpoints) {
+                probe(httpClient, requestConfig, path, endpoint, Math.max(1, healthyThreshold));
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void probe(CloseableHttpClient httpClient, RequestConfig requestConfig, String path, Endpoint endpoint, int healthyThreshold) {
+        boolean ok;
+        HttpGet probe = new HttpGet(endpoint.url + path);
+        probe.setConfig(requestConfig);
+        try (CloseableHttpResponse response = httpClient.execute(probe)) {
+            EntityUtils.consume(response.getEntity());
+            ok = response.getStatusLine().getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Bizbox health probe of {} failed: {}", endpoint.url, e.getMessage());
+            ok = false;
+        }
+        if (ok) {
+            endpoint.probeFailures = 0;
+            endpoint.probeSuccesses++;
+            if (!endpoint.healthy && endpoint.probeSuccesses >= healthyThreshold) {
+                endpoint.consecutiveFailures.set(0);
+                endpoint.healthy = true;
+                log.info("Bizbox endpoint {} is healthy again", endpoint.url);
+            }
+        } else {
+            endpoint.probeSuccesses = 0;
+            endpoint.probeFailures++;
+            if (endpoint.healthy && endpoint.probeFailures >= unhealthyThreshold) {
+                endpoint.healthy = false;
+                log.warn("Bizbox endpoint {} ejected after {} failed health probes", endpoint.url, endpoint.probeFailures);
+            }
+        }
+    }
+
+    /**
+     * @return state of every node for the provider info page
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        for (Endpoint endpoint : endpoints) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(endpoint.url).append(endpoint.healthy ? " UP" : " DOWN")
+                .append(String.format(" (inFlight=%d, latency=%.0fms)", endpoint.inFlight.get(), endpoint.latencyMillis));
+        }
+        return description.toString();
+    }
+
+    public synchronized void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+    }
+}
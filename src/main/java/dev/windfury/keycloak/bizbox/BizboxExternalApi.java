@@ -1,14 +1,21 @@
 package dev.windfury.keycloak.bizbox;
 
+import dev.windfury.keycloak.bizbox.dto.UserMemberDTO;
 import dev.windfury.keycloak.bizbox.dto.UserResponseDTO;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import java.net.URLEncoder;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -16,43 +23,203 @@ import javax.crypto.spec.SecretKeySpec;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.ws.rs.core.HttpHeaders;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.ConnectException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Consumer;
 
 public class BizboxExternalApi {
+    /** Bizbox base URL, or comma separated base URLs of several web nodes, unless set with the endpoints option */
     public static final String API_URL = System.getenv("BIZBOX_API_URL");
     private final Logger log = LoggerFactory.getLogger(BizboxExternalApi.class);
-    private ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CloseableHttpClient httpClient;
+    private final BizboxEndpoints endpoints;
+    private final RequestConfig requestConfig;
+    private final Duration loginBudget;
+    private final ScheduledExecutorService deadlineScheduler;
+    //circuit breakers of every node, indexed by LOGIN, SECURITY_CHECK and PROFILE, empty when disabled
+    private final Map<BizboxEndpoints.Endpoint, BizboxCircuitBreaker[]> breakers;
+    private final BizboxMetrics metrics;
+
+    private static final int NO_BREAKER = -1;
+    private static final int LOGIN = 0;
+    private static final int SECURITY_CHECK = 1;
+    private static final int PROFILE = 2;
+    private static final String[] BREAKER_PATHS = {"actionLogin.do", "j_spring_security_check", "userProfileInfo.do"};
+
+    /**
+     * @param httpClient shared, thread-safe client owned by {@link BizboxAuthenticatorFactory}. It is never closed here.
+     * @param endpoints Bizbox web nodes logins are spread over
+     * @param requestConfig per-hop connect, pool and socket timeouts
+     * @param loginBudget time budget covering every hop of one login
+     * @param breakerSettings thresholds of the circuit breakers kept per node and path, or null to disable them
+     * @param metrics per-phase login metrics
+     */
+    public BizboxExternalApi(CloseableHttpClient httpClient, BizboxEndpoints endpoints, RequestConfig requestConfig, Duration loginBudget,
+                             BizboxCircuitBreaker.Settings breakerSettings, BizboxMetrics metrics) {
+        this.httpClient = httpClient;
+        this.endpoints = endpoints;
+        this.metrics = metrics;
+        this.requestConfig = requestConfig;
+        this.loginBudget = loginBudget;
+        Map<BizboxEndpoints.Endpoint, BizboxCircuitBreaker[]> nodeBreakers = new LinkedHashMap<>();
+        if (breakerSettings != null) {
+            boolean single = endpoints.getEndpoints().size() == 1;
+            for (BizboxEndpoints.Endpoint endpoint : endpoints.getEndpoints()) {
+                BizboxCircuitBreaker[] pathBreakers = new BizboxCircuitBreaker[BREAKER_PATHS.length];
+                for (int path = 0; path < BREAKER_PATHS.length; path++) {
+                    //the names of a single node stay those of the whole Bizbox
+                    pathBreakers[path] = new BizboxCircuitBreaker(single ? BREAKER_PATHS[path] : BREAKER_PATHS[path] + "@" + endpoint.getUrl(),
+                        breakerSettings);
+                }
+                nodeBreakers.put(endpoint, pathBreakers);
+            }
+        }
+        this.breakers = Collections.unmodifiableMap(nodeBreakers);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "bizbox-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.deadlineScheduler = scheduler;
+    }
+
+    /**
+     * Starts the deadline of one login. Pass it to every call of the login and close it when the login is done.
+     * @return deadline with the configured login budget
+     */
+    public BizboxDeadline startDeadline() {
+        return BizboxDeadline.start(deadlineScheduler, loginBudget);
+    }
+
+    public void close() {
+        deadlineScheduler.shutdownNow();
+    }
+
+    public BizboxEndpoints getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return circuit breakers of every node and path, empty when disabled
+     */
+    public List<BizboxCircuitBreaker> getCircuitBreakers() {
+        List<BizboxCircuitBreaker> all = new ArrayList<>(breakers.size() * BREAKER_PATHS.length);
+        for (BizboxCircuitBreaker[] pathBreakers : breakers.values()) {
+            all.addAll(Arrays.asList(pathBreakers));
+        }
+        return all;
+    }
+
+    /**
+     * @return false if the breaker of the path on the node fails calls fast
+     */
+    private boolean isCallPermitted(BizboxEndpoints.Endpoint endpoint, int path) {
+        BizboxCircuitBreaker[] pathBreakers = breakers.get(endpoint);
+        return pathBreakers == null || pathBreakers[path].isCallPermitted();
+    }
+
+    /**
+     * @return false if either hop of a login would fail fast on the node
+     */
+    private boolean canLogin(BizboxEndpoints.Endpoint endpoint) {
+        return isCallPermitted(endpoint, LOGIN) && isCallPermitted(endpoint, SECURITY_CHECK);
+    }
+
+    /**
+     * @return true if the breaker of the path is open on every node, which is when Bizbox counts as failing
+     */
+    private boolean isOpenOnEveryNode(int path) {
+        for (BizboxEndpoints.Endpoint endpoint : endpoints.getEndpoints()) {
+            if (isCallPermitted(endpoint, path)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     /**
      * Method used for user authentication. A call is made to an external API for authentication.
      * @param username username of the user
      * @param password password of the user
-     * @return Token of the user
-     * @throws IOException
+     * @return Token of the user's session, bound to the Bizbox node that issued it, or null if Bizbox rejected the credentials
+     * @throws IOException if Bizbox could not be reached or answered with an error
      */
     public String getTokenAuthenticateToExternalApi(String username, String password) throws IOException {
+        return getTokenAuthenticateToExternalApi(username, password, null);
+    }
+
+    /**
+     * Same as {@link #getTokenAuthenticateToExternalApi(String, String)}, with both hops limited by a deadline.
+     * @param deadline deadline of the login, or null for per-hop timeouts only
+     * @throws BizboxTimeoutException if the deadline ran out
+     */
+    public String getTokenAuthenticateToExternalApi(String username, String password, BizboxDeadline deadline) throws IOException {
+        //nodes whose breakers fail logins fast are skipped, the login fails fast only when they are open on every node
+        BizboxEndpoints.Endpoint endpoint = endpoints.choose(null, this::canLogin);
+        if (endpoint == null) {
+            throw new BizboxUnavailableException(BREAKER_PATHS[LOGIN]);
+        }
+        try {
+            return login(username, password, endpoint, deadline);
+        } catch (IOException e) {
+            IOException failure = deadline != null ? deadline.translate(e) : e;
+            boolean refused = failure instanceof BizboxUnavailableException && !((BizboxUnavailableException) failure).isCircuitOpen();
+            if (!(isConnectFailure(failure) || refused) || endpoints.getEndpoints().size() == 1) {
+                throw failure;
+            }
+            //nothing reached the node, or its breaker opened meanwhile, so the login can start over on another one
+            BizboxEndpoints.Endpoint other = endpoints.choose(endpoint, this::canLogin);
+            if (other == null) {
+                throw new BizboxUnavailableException(BREAKER_PATHS[LOGIN]);
+            }
+            log.warn("Bizbox endpoint {} unavailable ({}), retrying the login on {}", endpoint, failure.getMessage(), other);
+            try {
+                return login(username, password, other, deadline);
+            } catch (IOException retryFailure) {
+                throw deadline != null ? deadline.translate(retryFailure) : retryFailure;
+            }
+        }
+    }
+
+    private static boolean isConnectFailure(IOException e) {
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException || e instanceof NoHttpResponseException;
+    }
+
+    private String login(String username, String password, BizboxEndpoints.Endpoint endpoint, BizboxDeadline deadline) throws IOException {
         String plainPassword = new String(Base64.getDecoder().decode(password), StandardCharsets.UTF_8);
-        CloseableHttpClient httpClient = HttpClients.createDefault();
+        String apiUrl = endpoint.getUrl();
         //Define url for the request
-        HttpPost httpPost = new HttpPost(API_URL + "/gw/uat/uia/actionLogin.do");
+        HttpPost httpPost = new HttpPost(apiUrl + "/gw/uat/uia/actionLogin.do");
 
+        long encryptStart = System.nanoTime();
         Map<String, String> params = generateLoginParams(username, plainPassword);
+        metrics.record(BizboxMetrics.Phase.ENCRYPT, encryptStart);
         StringBuilder requestBuilder = new StringBuilder();
         for (Map.Entry<String, String> entry : params.entrySet()) {
             if (requestBuilder.length() > 0) {
@@ -73,39 +240,48 @@ public class BizboxExternalApi {
         httpPost.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_FORM_URLENCODED.getMimeType());
         httpPost.setHeader(HttpHeaders.ACCEPT, "application/json, text/plain, */*");
         httpPost.setHeader(HttpHeaders.USER_AGENT, "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/131.0.0.0 Safari/537.36");
-        httpPost.setHeader("Origin", API_URL);
-        httpPost.setHeader("Referer", API_URL);
+        httpPost.setHeader("Origin", apiUrl);
+        httpPost.setHeader("Referer", apiUrl);
 
         //Execute request
-        CloseableHttpResponse response = httpClient.execute(httpPost);
-
-        //Read response
-        String resBody = EntityUtils.toString(response.getEntity());
+        BizboxLoginFormScanner.Result loginForm;
+        String sessionId;
+        long loginStart = System.nanoTime();
+        try (CloseableHttpResponse response = execute(httpPost, endpoint, deadline, LOGIN)) {
+            HttpEntity responseEntity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                String resBody = EntityUtils.toString(responseEntity);
+                log.error(String.format("Failed to POST login: %s %s",  response.getStatusLine().getStatusCode(), resBody));
+                throw new IOException("로그인 실패");
+            }
+            //Scan the page while it streams in. Closing the stream drains the unread rest, which returns the connection to the pool.
+            try (Reader reader = new InputStreamReader(responseEntity.getContent(), responseCharset(responseEntity))) {
+                loginForm = BizboxLoginFormScanner.scan(reader);
+            }
+            if (!loginForm.isSpringSecurityForm()) {
+                //Bizbox answers a rejected id/password with a page without the Spring Security form
+                log.warn("Bizbox rejected credentials of {}", username);
+                return null;
+            }
 
-        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || !resBody.contains("j_spring_security_check")) {
-            log.error(String.format("Failed to POST login: %s %s",  response.getStatusLine().getStatusCode(), resBody));
-            throw new IOException("로그인 실패");
+            final String SET_COOKIE_NAME = "Set-Cookie";
+            final String JSESSIONID_NAME = "JSESSIONID=";
+
+            String setCookieHeader = response.getFirstHeader(SET_COOKIE_NAME) != null ? response.getFirstHeader(SET_COOKIE_NAME).getValue() : "";
+            sessionId = Arrays.stream(setCookieHeader.split(";"))
+                .filter(term -> term.trim().startsWith(JSESSIONID_NAME))
+                .map(term -> term.trim().substring(JSESSIONID_NAME.length()))
+                .findFirst()
+                .orElse("");
+        } finally {
+            metrics.record(BizboxMetrics.Phase.ACTION_LOGIN, loginStart);
         }
 
-        final String SET_COOKIE_NAME = "Set-Cookie";
-        final String JSESSIONID_NAME = "JSESSIONID=";
-
-        String setCookieHeader = response.getFirstHeader(SET_COOKIE_NAME) != null ? response.getFirstHeader(SET_COOKIE_NAME).getValue() : "";
-        String sessionId = Arrays.stream(setCookieHeader.split(";"))
-            .filter(term -> term.trim().startsWith(JSESSIONID_NAME))
-            .map(term -> term.trim().substring(JSESSIONID_NAME.length()))
-            .findFirst()
-            .orElse("");
-
         log.info("JSESSIONID: {}", sessionId);
 
-        response.close();
-
-
-        String formAction = extractFormAction(resBody);
-        String formActionUrl = buildFormActionUrl(formAction);
-        String formUsername = extractInputValue(resBody, "j_username");
-        String formPassword = extractInputValue(resBody, "j_password");
+        String formActionUrl = buildFormActionUrl(apiUrl, loginForm.getFormAction());
+        String formUsername = loginForm.getUsername();
+        String formPassword = loginForm.getPassword();
 
         Map<String, String> springLoginParams = new LinkedHashMap<>();
         springLoginParams.put("j_username", formUsername);
@@ -130,18 +306,64 @@ public class BizboxExternalApi {
         formPost.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_FORM_URLENCODED.getMimeType());
         formPost.setHeader("Cookie", "JSESSIONID=" + sessionId);
 
-        CloseableHttpResponse springResponse = httpClient.execute(formPost);
-        int springStatus = springResponse.getStatusLine().getStatusCode();
-        if (springStatus >= 400) {
-            String errorBody = EntityUtils.toString(springResponse.getEntity(), StandardCharsets.UTF_8);
-            log.error("Failed to POST Spring Security login: {} {}", springStatus, errorBody);
-            throw new IOException("Spring Security 로그인 실패");
+        long securityCheckStart = System.nanoTime();
+        try (CloseableHttpResponse springResponse = execute(formPost, endpoint, deadline, SECURITY_CHECK)) {
+            int springStatus = springResponse.getStatusLine().getStatusCode();
+            if (springStatus >= 400) {
+                String errorBody = EntityUtils.toString(springResponse.getEntity(), StandardCharsets.UTF_8);
+                log.error("Failed to POST Spring Security login: {} {}", springStatus, errorBody);
+                throw new IOException("Spring Security 로그인 실패");
+            }
+            EntityUtils.consume(springResponse.getEntity());
+        } finally {
+            metrics.record(BizboxMetrics.Phase.SECURITY_CHECK, securityCheckStart);
+        }
+
+        return endpoints.token(endpoint, sessionId);
+    }
+
+    /**
+     * Ends a Bizbox session, so Bizbox can release it instead of waiting for its session timeout.
+     * Runs in the background and is not guarded by a circuit breaker.
+     * @param token JSESSIONID of the session
+     * @throws IOException if Bizbox could not be reached
+     */
+    public void logout(String token) throws IOException {
+        BizboxEndpoints.Endpoint endpoint = endpoints.endpointOf(token);
+        HttpGet httpGet = new HttpGet(endpoint.getUrl() + "/gw/uat/uia/actionLogout.do");
+        httpGet.setHeader("Cookie", "JSESSIONID=" + endpoints.sessionIdOf(token));
+        try (CloseableHttpResponse httpResponse = execute(httpGet, endpoint, null, NO_BREAKER)) {
+            EntityUtils.consume(httpResponse.getEntity());
+            if (httpResponse.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
+                log.debug("Bizbox logout answered {}", httpResponse.getStatusLine().getStatusCode());
+            }
         }
-        EntityUtils.consume(springResponse.getEntity());
-        springResponse.close();
+    }
 
-        httpClient.close();
-        return sessionId;
+    /**
+     * Runs the local work of a login on synthetic payloads: both ciphers, the login form scanner, the streaming member
+     * reader, the mapping to a user and the DTO binding. Class loading, JCE provider lookup, Jackson introspection and
+     * JIT compilation then happen before the first real login. The synthetic ids are encrypted without the cache of
+     * encrypted ids, which keeps only the ids of real logins.
+     * @param iterations number of synthetic logins
+     * @param deadline {@link System#nanoTime()} after which no further synthetic login is started
+     * @return number of synthetic logins run
+     */
+    int warmUp(int iterations, long deadline) throws IOException {
+        byte[] profile = WARM_UP_PROFILE.getBytes(StandardCharsets.UTF_8);
+        objectMapper.readValue(profile, UserResponseDTO.class);
+        for (int i = 0; i < iterations; i++) {
+            if (deadline - System.nanoTime() <= 0) {
+                return i;
+            }
+            encryptId("warm-up-" + i);
+            securityEncrypt("warm-up-" + i, 1);
+            BizboxLoginFormScanner.scan(new StringReader(WARM_UP_LOGIN_PAGE));
+            try (JsonParser parser = objectMapper.getFactory().createParser(profile)) {
+                BizboxAuthenticator.toUser(BizboxMemberReader.findMember(parser, "warmup"));
+            }
+        }
+        return iterations;
     }
 
     /**
@@ -151,34 +373,112 @@ public class BizboxExternalApi {
      * @throws IOException
      */
     public UserResponseDTO getProfileToExternalApi(String token) throws IOException {
-        CloseableHttpClient httpClient = HttpClients.createDefault();
         //Define url for the request
-        HttpGet httpGet = new HttpGet(String.format("%s/gw/cmm/systemx/userProfileInfo.do", API_URL));
+        BizboxEndpoints.Endpoint endpoint = endpoints.endpointOf(token);
+        HttpGet httpGet = new HttpGet(String.format("%s/gw/cmm/systemx/userProfileInfo.do", endpoint.getUrl()));
         //Add token to the request
         httpGet.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_FORM_URLENCODED.getMimeType());
-        httpGet.setHeader("Cookie", "JSESSIONID=" + token);
+        httpGet.setHeader("Cookie", "JSESSIONID=" + endpoints.sessionIdOf(token));
 
         //Execute request
-        CloseableHttpResponse httpResponse = httpClient.execute(httpGet, HttpClientContext.create());
-
-        //Read response
-        HttpEntity entity = httpResponse.getEntity();
-        String responseString = EntityUtils.toString(entity, StandardCharsets.UTF_8);
-
-        //check the response status
-        if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-            //log error
-            log.error(String.format("Failed to POST login: %s %s",  httpResponse.getStatusLine().getStatusCode(), responseString));
-            httpResponse.close();
-            httpClient.close();
-            return null;
-        } else {
+        try (CloseableHttpResponse httpResponse = execute(httpGet, endpoint, null, PROFILE)) {
+            //Read response
+            HttpEntity entity = httpResponse.getEntity();
+            String responseString = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+
+            //check the response status
+            if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                //log error
+                log.error(String.format("Failed to POST login: %s %s",  httpResponse.getStatusLine().getStatusCode(), responseString));
+                return null;
+            }
             //convert json into my response object
-            UserResponseDTO userResponse = objectMapper.readValue(responseString, UserResponseDTO.class);
+            return objectMapper.readValue(responseString, UserResponseDTO.class);
+        }
+    }
+
+    /**
+     * Method used to get the profile of one member. The response is streamed and only the member with the given loginId is materialized.
+     * @param token token of the user
+     * @param loginId login id of the member to look up
+     * @return UserMemberDTO of the member, or null if the call failed or no member matches
+     * @throws BizboxSessionExpiredException if Bizbox no longer accepts the session
+     * @throws IOException
+     */
+    public UserMemberDTO getProfileMemberToExternalApi(String token, String loginId) throws IOException {
+        return getProfileMemberToExternalApi(token, loginId, null);
+    }
+
+    /**
+     * Same as {@link #getProfileMemberToExternalApi(String, String)}, limited by a deadline.
+     * @param deadline deadline of the login, or null for per-hop timeouts only
+     * @throws BizboxTimeoutException if the deadline ran out
+     */
+    public UserMemberDTO getProfileMemberToExternalApi(String token, String loginId, BizboxDeadline deadline) throws IOException {
+        try {
+            return fetchProfileMember(token, loginId, deadline);
+        } catch (IOException e) {
+            throw deadline != null ? deadline.translate(e) : e;
+        }
+    }
+
+    private UserMemberDTO fetchProfileMember(String token, String loginId, BizboxDeadline deadline) throws IOException {
+        BizboxEndpoints.Endpoint endpoint = endpoints.endpointOf(token);
+        HttpGet httpGet = new HttpGet(String.format("%s/gw/cmm/systemx/userProfileInfo.do", endpoint.getUrl()));
+        httpGet.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_FORM_URLENCODED.getMimeType());
+        httpGet.setHeader("Cookie", "JSESSIONID=" + endpoints.sessionIdOf(token));
+
+        long profileStart = System.nanoTime();
+        try (CloseableHttpResponse httpResponse = execute(httpGet, endpoint, deadline, PROFILE)) {
+            metrics.record(BizboxMetrics.Phase.PROFILE, profileStart);
+            HttpEntity entity = httpResponse.getEntity();
+            if (isSessionExpired(httpResponse)) {
+                EntityUtils.consume(entity);
+                throw new BizboxSessionExpiredException(httpGet.getURI().getPath());
+            }
+            if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                String responseString = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+                log.error(String.format("Failed to GET user profile: %s %s",  httpResponse.getStatusLine().getStatusCode(), responseString));
+                return null;
+            }
+            //Closing the parser closes the entity stream, which drains the unread rest and returns the connection to the pool
+            long mappingStart = System.nanoTime();
+            try (JsonParser parser = objectMapper.getFactory().createParser(entity.getContent())) {
+                return BizboxMemberReader.findMember(parser, loginId);
+            } finally {
+                metrics.record(BizboxMetrics.Phase.JSON_MAPPING, mappingStart);
+            }
+        }
+    }
+
+    /**
+     * Method used to read every member visible to the given session, for the organization import.
+     * The response is streamed and the call bypasses the profile circuit breaker, a slow bulk read must not fail logins fast.
+     * @param token token of the service account
+     * @param consumer receives each member
+     * @return number of members read
+     * @throws BizboxSessionExpiredException if Bizbox no longer accepts the session
+     * @throws IOException if Bizbox could not be reached or answered with an error
+     */
+    public int forEachProfileMember(String token, Consumer<UserMemberDTO> consumer) throws IOException {
+        BizboxEndpoints.Endpoint endpoint = endpoints.endpointOf(token);
+        HttpGet httpGet = new HttpGet(String.format("%s/gw/cmm/systemx/userProfileInfo.do", endpoint.getUrl()));
+        httpGet.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_FORM_URLENCODED.getMimeType());
+        httpGet.setHeader("Cookie", "JSESSIONID=" + endpoints.sessionIdOf(token));
 
-            httpResponse.close();
-            httpClient.close();
-            return userResponse;
+        try (CloseableHttpResponse httpResponse = execute(httpGet, endpoint, null, NO_BREAKER)) {
+            HttpEntity entity = httpResponse.getEntity();
+            if (isSessionExpired(httpResponse)) {
+                EntityUtils.consume(entity);
+                throw new BizboxSessionExpiredException(httpGet.getURI().getPath());
+            }
+            if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                String responseString = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+                throw new IOException(String.format("Failed to GET user profiles: %s %s", httpResponse.getStatusLine().getStatusCode(), responseString));
+            }
+            try (JsonParser parser = objectMapper.getFactory().createParser(entity.getContent())) {
+                return BizboxMemberReader.forEachMember(parser, consumer);
+            }
         }
     }
 
@@ -197,33 +497,82 @@ public class BizboxExternalApi {
         "!"
     };
 
-    private String securityEncrypt(String data, int type) {
-        String key = type == 1 ? ENCRYPTION_CONSTS[1] : ENCRYPTION_CONSTS[0];
-        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-        IvParameterSpec ivSpec = new IvParameterSpec(keyBytes);
+    private static final String WARM_UP_LOGIN_PAGE = "<html><body><form name=\"form\" method=\"post\" action=\"/gw/j_spring_security_check\">"
+        + "<input type=\"hidden\" name=\"j_username\" value=\"warmup\"/><input type=\"hidden\" name=\"j_password\" value=\"warmup\"/>"
+        + "</form></body></html>";
+    private static final String WARM_UP_PROFILE = "{\"startCount\":0,\"totalCount\":2,\"list\":["
+        + "{\"loginId\":\"other\",\"name\":\"김철수\",\"compSeq\":\"1000\",\"deptSeq\":\"1210\",\"depth\":3},"
+        + "{\"loginId\":\"warmup\",\"name\":\"홍길동\",\"emailAddr\":\"warmup\",\"emailDomain\":\"example.com\","
+        + "\"mobileTelNum\":\"010-0000-0000\",\"telNum\":\"02-000-0000\",\"faxNum\":\"02-000-0001\",\"compSeq\":\"1000\","
+        + "\"deptSeq\":\"1210\",\"dutyCode\":\"D03\",\"positionCode\":\"P05\",\"depth\":3,"
+        + "\"orgPath\":{\"compSeq\":\"1000\",\"deptSeqs\":[\"1000\",\"1210\"]}}]}";
+    private static final String CIPHER_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final SecretKeySpec[] KEY_SPECS = {keySpec(ENCRYPTION_CONSTS[0]), keySpec(ENCRYPTION_CONSTS[1])};
+    private static final IvParameterSpec[] IV_SPECS = {ivSpec(ENCRYPTION_CONSTS[0]), ivSpec(ENCRYPTION_CONSTS[1])};
+    //Key and IV never change, so each thread keeps one initialized cipher per key type. CBC encryption may reuse an initialized cipher after doFinal.
+    private static final ThreadLocal<Cipher[]> CIPHERS = ThreadLocal.withInitial(() -> new Cipher[KEY_SPECS.length]);
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final int ENCRYPTED_ID_CACHE_SIZE = 10_000;
+
+    //The encrypted id is deterministic per username, so the split id, id_sub1 and id_sub2 values are cached
+    private final Cache<String, String[]> encryptedIds = Caffeine.newBuilder()
+        .maximumSize(ENCRYPTED_ID_CACHE_SIZE)
+        .build();
+
+    private static SecretKeySpec keySpec(String key) {
+        return new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "AES");
+    }
+
+    private static IvParameterSpec ivSpec(String key) {
+        return new IvParameterSpec(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Cipher cipher(int type) throws GeneralSecurityException {
+        Cipher[] ciphers = CIPHERS.get();
+        Cipher cipher = ciphers[type];
+        if (cipher == null) {
+            cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, KEY_SPECS[type], IV_SPECS[type]);
+            ciphers[type] = cipher;
+        }
+        return cipher;
+    }
+
+    String securityEncrypt(String data, int type) {
+        int keyType = type == 1 ? 1 : 0;
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
-            byte[] encryptedBytes = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
+            byte[] encryptedBytes = cipher(keyType).doFinal(data.getBytes(StandardCharsets.UTF_8));
             String encrypted = Base64.getEncoder().encodeToString(encryptedBytes);
-            String result = ENCRYPTION_CONSTS[11] + encrypted;
-            
-            String encoded = URLEncoder.encode(result, StandardCharsets.UTF_8);
             //! javascript의 encodeURIComponent와 동일하게 변환
-            return encoded
-                .replace("+", "%20")
-                .replace("%21", "!")
-                .replace("%27", "'")
-                .replace("%28", "(")
-                .replace("%29", ")")
-                .replace("%7E", "~");
+            return encodeURIComponent(ENCRYPTION_CONSTS[11] + encrypted);
         } catch (GeneralSecurityException e) {
+            //drop the cipher of this thread, it is re-created on the next call
+            CIPHERS.get()[keyType] = null;
             throw new IllegalStateException("Failed to encrypt", e);
         }
     }
 
-    public Map<String, String> generateLoginParams(String id, String pw) {
+    /**
+     * Single-pass equivalent of javascript encodeURIComponent.
+     * @param value value to encode
+     * @return UTF-8 percent-encoded value
+     */
+    static String encodeURIComponent(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        StringBuilder encoded = new StringBuilder(bytes.length + 16);
+        for (byte b : bytes) {
+            int c = b & 0xFF;
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '!' || c == '~' || c == '*' || c == '\'' || c == '(' || c == ')') {
+                encoded.append((char) c);
+            } else {
+                encoded.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0x0F]);
+            }
+        }
+        return encoded.toString();
+    }
+
+    private String[] encryptId(String id) {
         String userId0 = securityEncrypt(id, 0);
         String userId1 = "";
         String userId2 = "";
@@ -235,54 +584,73 @@ public class BizboxExternalApi {
                 userId1 = userId1.substring(0, 50);
             }
         }
+        return new String[]{userId0, userId1, userId2};
+    }
+
+    public Map<String, String> generateLoginParams(String id, String pw) {
+        String[] userIds = encryptedIds.get(id, this::encryptId);
         String encryptedPw = securityEncrypt(pw, 0);
 
         Map<String, String> params = new LinkedHashMap<>();
         params.put("isScLogin", "");
         params.put("scUserId", "");
         params.put("scUserPwd", "");
-        params.put("id", userId0);
-        params.put("id_sub1", userId1);
-        params.put("id_sub2", userId2);
+        params.put("id", userIds[0]);
+        params.put("id_sub1", userIds[1]);
+        params.put("id_sub2", userIds[2]);
         params.put("password", encryptedPw);
         return params;
     }
 
-    private String extractFormAction(String html) {
-        if (html == null) {
-            return "";
+    /**
+     * @param path breaker guarding the call on the node, or {@link #NO_BREAKER}
+     * @throws BizboxUnavailableException if the breaker of the path on the node is open
+     */
+    private CloseableHttpResponse execute(HttpRequestBase request, BizboxEndpoints.Endpoint endpoint, BizboxDeadline deadline,
+                                          int path) throws IOException {
+        BizboxCircuitBreaker breaker = path != NO_BREAKER && breakers.containsKey(endpoint) ? breakers.get(endpoint)[path] : null;
+        if (breaker != null && !breaker.tryAcquire()) {
+            throw new BizboxUnavailableException(breaker.getName(), isOpenOnEveryNode(path));
         }
-        Matcher matcher = Pattern.compile("<form[^>]*action\\s*=\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE).matcher(html);
-        if (matcher.find()) {
-            return matcher.group(1);
+        long start = System.nanoTime();
+        boolean failed = true;
+        endpoints.started(endpoint);
+        try {
+            if (deadline != null) {
+                deadline.attach(request, requestConfig);
+            } else {
+                request.setConfig(requestConfig);
+            }
+            CloseableHttpResponse response = httpClient.execute(request, HttpClientContext.create());
+            failed = response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+            return response;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            endpoints.finished(endpoint, elapsed, failed);
+            if (breaker != null) {
+                breaker.onResult(failed, elapsed);
+            }
         }
-        matcher = Pattern.compile("<form[^>]*action\\s*=\\s*'([^']*)'", Pattern.CASE_INSENSITIVE).matcher(html);
-        return matcher.find() ? matcher.group(1) : "";
     }
 
-    private String extractInputValue(String html, String inputName) {
-        if (html == null || inputName == null) {
-            return "";
-        }
-        String namePattern = Pattern.quote(inputName);
-        Pattern inputTagPattern = Pattern.compile(
-            "<input[^>]*name\\s*=\\s*(?:\"" + namePattern + "\"|'" + namePattern + "')[^>]*>",
-            Pattern.CASE_INSENSITIVE
-        );
-        Matcher matcher = inputTagPattern.matcher(html);
-        if (!matcher.find()) {
-            return "";
-        }
-        String inputTag = matcher.group();
-        Matcher valueMatcher = Pattern.compile("value\\s*=\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE).matcher(inputTag);
-        if (valueMatcher.find()) {
-            return valueMatcher.group(1);
+    //Bizbox answers a request of an expired session with 401, or with a redirect to its login page that the client follows
+    private static boolean isSessionExpired(CloseableHttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_UNAUTHORIZED) {
+            return true;
         }
-        valueMatcher = Pattern.compile("value\\s*=\\s*'([^']*)'", Pattern.CASE_INSENSITIVE).matcher(inputTag);
-        return valueMatcher.find() ? valueMatcher.group(1) : "";
+        Header contentType = response.getEntity() != null ? response.getEntity().getContentType() : null;
+        return status == HttpStatus.SC_OK && contentType != null
+            && contentType.getValue().toLowerCase(Locale.ROOT).startsWith(ContentType.TEXT_HTML.getMimeType());
+    }
+
+    private static Charset responseCharset(HttpEntity entity) {
+        ContentType contentType = ContentType.get(entity);
+        Charset charset = contentType != null ? contentType.getCharset() : null;
+        return charset != null ? charset : StandardCharsets.UTF_8;
     }
 
-    private String buildFormActionUrl(String action) {
+    private static String buildFormActionUrl(String apiUrl, String action) {
         if (action == null || action.isBlank()) {
             return "";
         }
@@ -290,9 +658,9 @@ public class BizboxExternalApi {
             return action;
         }
         if (action.startsWith("/")) {
-            return API_URL + action;
+            return apiUrl + action;
         }
-        return API_URL + "/" + action;
+        return apiUrl + "/" + action;
     }
 
 }
@@ -0,0 +1,237 @@
+package dev.windfury.keycloak.bizbox;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single-pass scanner for the Spring Security form that actionLogin.do answers with.
+ * It reads the page incrementally, looks only at {@code <form>} and {@code <input>} tags
+ * and stops as soon as the form action, j_username and j_password are known,
+ * so the rest of a large page is never decoded or matched.
+ */
+final class BizboxLoginFormScanner {
+
+    static final String SPRING_SECURITY_CHECK = "j_spring_security_check";
+    static final String USERNAME_INPUT = "j_username";
+    static final String PASSWORD_INPUT = "j_password";
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_TAG_LENGTH = 8192;
+
+    private String formAction;
+    private String username;
+    private String password;
+    private boolean springSecurityCheckSeen;
+    private int keywordIndex;
+
+    private final StringBuilder tag = new StringBuilder(256);
+    private boolean inTag;
+    private char quote;
+
+    private BizboxLoginFormScanner() {
+    }
+
+    /**
+     * Scans a login page. The reader is not closed.
+     * @param reader reader over the response body
+     * @return the extracted form fields
+     * @throws IOException if reading fails
+     */
+    static Result scan(Reader reader) throws IOException {
+        BizboxLoginFormScanner scanner = new BizboxLoginFormScanner();
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            if (scanner.accept(buffer, read)) {
+                break;
+            }
+        }
+        return new Result(scanner.formAction, scanner.username, scanner.password, scanner.springSecurityCheckSeen);
+    }
+
+    /**
+     * @return true once every field has been found
+     */
+    private boolean accept(char[] buffer, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = buffer[i];
+            matchKeyword(c);
+            if (!inTag) {
+                if (c == '<') {
+                    inTag = true;
+                    quote = 0;
+                    tag.setLength(0);
+                }
+                continue;
+            }
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                inTag = false;
+                handleTag();
+                if (isComplete()) {
+                    return true;
+                }
+                continue;
+            } else if (c == '<') {
+                // a stray '<' in text, restart at the new tag
+                quote = 0;
+                tag.setLength(0);
+                continue;
+            }
+            if (tag.length() < MAX_TAG_LENGTH) {
+                tag.append(c);
+            } else {
+                inTag = false;
+            }
+        }
+        return false;
+    }
+
+    private boolean isComplete() {
+        return springSecurityCheckSeen && formAction != null && username != null && password != null;
+    }
+
+    private void matchKeyword(char c) {
+        if (springSecurityCheckSeen) {
+            return;
+        }
+        // the keyword starts with the only 'j' it contains, so a mismatch can only restart at index 0
+        if (c == SPRING_SECURITY_CHECK.charAt(keywordIndex)) {
+            keywordIndex++;
+            if (keywordIndex == SPRING_SECURITY_CHECK.length()) {
+                springSecurityCheckSeen = true;
+            }
+        } else {
+            keywordIndex = c == SPRING_SECURITY_CHECK.charAt(0) ? 1 : 0;
+        }
+    }
+
+    private void handleTag() {
+        int nameEnd = 0;
+        while (nameEnd < tag.length() && Character.isLetter(tag.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (regionEquals(0, nameEnd, "form")) {
+            if (formAction == null) {
+                formAction = attribute("action", nameEnd);
+            }
+        } else if (regionEquals(0, nameEnd, "input")) {
+            String name = attribute("name", nameEnd);
+            if (name == null) {
+                return;
+            }
+            if (username == null && name.equalsIgnoreCase(USERNAME_INPUT)) {
+                username = valueOrEmpty(attribute("value", nameEnd));
+            } else if (password == null && name.equalsIgnoreCase(PASSWORD_INPUT)) {
+                password = valueOrEmpty(attribute("value", nameEnd));
+            }
+        }
+    }
+
+    /**
+     * Returns the value of an attribute of the current tag, or null if absent.
+     */
+    private String attribute(String attributeName, int from) {
+        int i = from;
+        int length = tag.length();
+        while (i < length) {
+            while (i < length && (Character.isWhitespace(tag.charAt(i)) || tag.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < length && !Character.isWhitespace(tag.charAt(i)) && tag.charAt(i) != '=' && tag.charAt(i) != '/') {
+                i++;
+            }
+            int nameEnd = i;
+            while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            String value = null;
+            if (i < length && tag.charAt(i) == '=') {
+                i++;
+                while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                if (i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+                    char q = tag.charAt(i++);
+                    int valueStart = i;
+                    while (i < length && tag.charAt(i) != q) {
+                        i++;
+                    }
+                    value = tag.substring(valueStart, i);
+                    i++;
+                } else {
+                    int valueStart = i;
+                    while (i < length && !Character.isWhitespace(tag.charAt(i))) {
+                        i++;
+                    }
+                    value = tag.substring(valueStart, i);
+                }
+            }
+            if (nameEnd > nameStart && regionEquals(nameStart, nameEnd, attributeName)) {
+                return value != null ? value : "";
+            }
+            if (nameEnd == nameStart && value == null) {
+                i++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Case-insensitive comparison of a region of the current tag with a lower-case name.
+     */
+    private boolean regionEquals(int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(tag.charAt(start + i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String valueOrEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    static final class Result {
+        private final String formAction;
+        private final String username;
+        private final String password;
+        private final boolean springSecurityForm;
+
+        Result(String formAction, String username, String password, boolean springSecurityForm) {
+            this.formAction = formAction;
+            this.username = username;
+            this.password = password;
+            this.springSecurityForm = springSecurityForm;
+        }
+
+        /**
+         * @return true if the page is the Spring Security login form, i.e. Bizbox accepted the credentials
+         */
+        boolean isSpringSecurityForm() {
+            return springSecurityForm;
+        }
+
+        String getFormAction() {
+            return valueOrEmpty(formAction);
+        }
+
+        String getUsername() {
+            return valueOrEmpty(username);
+        }
+
+        String getPassword() {
+            return valueOrEmpty(password);
+        }
+    }
+}
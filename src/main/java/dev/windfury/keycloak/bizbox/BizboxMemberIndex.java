@@ -0,0 +1,183 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory index of every Bizbox member by login id and email, read with a service account from userProfileInfo.do.
+ * A refresh builds a new snapshot and swaps it in, lookups never block. Members whose values did not change keep their
+ * {@link User} instance, and organization codes shared by many members (company, department, duty, position) are
+ * deduplicated so each distinct value is held once.
+ * A login id Bizbox lists more than once resolves to its first member, like the lookup at login and the organization
+ * sync, see {@link BizboxMemberReader}.
+ */
+public class BizboxMemberIndex {
+
+    private static class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), 0L);
+
+        private final Map<String, User> byUsername;
+        private final Map<String, User> byEmail;
+        private final Map<String, String> codes;
+        private final long loadedAt;
+
+        private Snapshot(Map<String, User> byUsername, Map<String, User> byEmail, Map<String, String> codes, long loadedAt) {
+            this.byUsername = byUsername;
+            this.byEmail = byEmail;
+            this.codes = codes;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(BizboxMemberIndex.class);
+
+    private final String username;
+    private final String password;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private long missRefreshedAt;
+
+    /**
+     * @param username Bizbox account used to read the members
+     * @param password password of the account
+     */
+    public BizboxMemberIndex(String username, String password) {
+        this.username = username;
+        //the login form submits the password base64 encoded
+        this.password = Base64.getEncoder().encodeToString(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return member with the given login id, ignoring case, or null
+     */
+    public User getByUsername(String loginId) {
+        return loginId != null ? snapshot.byUsername.get(loginId.toLowerCase(Locale.ROOT)) : null;
+    }
+
+    /**
+     * @return member with the given email, ignoring case, or null
+     */
+    public User getByEmail(String email) {
+        return email != null ? snapshot.byEmail.get(email.toLowerCase(Locale.ROOT)) : null;
+    }
+
+    /**
+     * @return false until the first refresh completed
+     */
+    public boolean isLoaded() {
+        return snapshot.loadedAt > 0L;
+    }
+
+    public int size() {
+        return snapshot.byUsername.size();
+    }
+
+    /**
+     * Reads every member from Bizbox and swaps in the new snapshot. The previous snapshot stays in place on failure.
+     * The Bizbox session of the refresh is logged out afterwards.
+     * @param api api used for the service account login and the member list
+     * @throws IOException if Bizbox could not be reached, answered with an error or rejected the account
+     */
+    public void refresh(BizboxExternalApi api) throws IOException {
+        String token = api.getTokenAuthenticateToExternalApi(username, password);
+        if (token == null) {
+            throw new IOException("Bizbox rejected the member index account " + username);
+        }
+        try {
+            load(api, token);
+        } finally {
+            try {
+                api.logout(token);
+            } catch (IOException e) {
+                log.debug("Failed to log out the Bizbox member index session: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Refreshes the index after a lookup of a member Bizbox accepted missed, so members added since the last refresh
+     * can log in. Does nothing if a miss refreshed it less than minInterval ago; concurrent misses wait for one refresh.
+     * @param api api used for the service account login and the member list
+     * @param minInterval minimum time between refreshes caused by misses
+     * @throws IOException if the refresh failed
+     */
+    public synchronized void refreshOnMiss(BizboxExternalApi api, Duration minInterval) throws IOException {
+        long now = System.nanoTime();
+        if (missRefreshedAt != 0L && now - missRefreshedAt < minInterval.toNanos()) {
+            return;
+        }
+        missRefreshedAt = now;
+        refresh(api);
+    }
+
+    private void load(BizboxExternalApi api, String token) throws IOException {
+        Snapshot previous = snapshot;
+        Map<String, User> byUsername = new HashMap<>(Math.max(16, previous.byUsername.size() * 4 / 3 + 1));
+        Map<String, User> byEmail = new HashMap<>(Math.max(16, previous.byEmail.size() * 4 / 3 + 1));
+        Map<String, String> codes = new HashMap<>(Math.max(16, previous.codes.size() * 4 / 3 + 1));
+        int[] changed = new int[1];
+        api.forEachProfileMember(token, member -> {
+            if (member.getLoginId() == null || member.getLoginId().isBlank()) {
+                return;
+            }
+            String key = member.getLoginId().toLowerCase(Locale.ROOT);
+            if (byUsername.containsKey(key)) {
+                //the first member with the login id wins
+                return;
+            }
+            User user = BizboxAuthenticator.toUser(member);
+            User current = previous.byUsername.get(key);
+            if (current != null && sameValues(current, user)) {
+                user = current;
+            } else {
+                changed[0]++;
+            }
+            user.setCompanySeq(dedupe(codes, user.getCompanySeq()));
+            user.setDepartmentSeq(dedupe(codes, user.getDepartmentSeq()));
+            user.setDutyCode(dedupe(codes, user.getDutyCode()));
+            user.setPositionCode(dedupe(codes, user.getPositionCode()));
+            byUsername.put(key, user);
+            if (user.getEmail() != null && !user.getEmail().isBlank()) {
+                byEmail.putIfAbsent(user.getEmail().toLowerCase(Locale.ROOT), user);
+            }
+        });
+        int removed = 0;
+        for (String key : previous.byUsername.keySet()) {
+            if (!byUsername.containsKey(key)) {
+                removed++;
+            }
+        }
+        snapshot = new Snapshot(byUsername, byEmail, codes, System.currentTimeMillis());
+        log.info("Bizbox member index refreshed: {} members, {} changed, {} removed, {} distinct organization codes",
+            byUsername.size(), changed[0], removed, codes.size());
+    }
+
+    private static String dedupe(Map<String, String> codes, String value) {
+        return value != null ? codes.computeIfAbsent(value, v -> v) : null;
+    }
+
+    private static boolean sameValues(User a, User b) {
+        return Objects.equals(a.getUsername(), b.getUsername())
+            && Objects.equals(a.getFirstName(), b.getFirstName())
+            && Objects.equals(a.getLastName(), b.getLastName())
+            && Objects.equals(a.getEmail(), b.getEmail())
+            && Objects.equals(a.getMobileTelephoneNumber(), b.getMobileTelephoneNumber())
+            && Objects.equals(a.getInnerTelephoneNumber(), b.getInnerTelephoneNumber())
+            && Objects.equals(a.getFaxTelephoneNumber(), b.getFaxTelephoneNumber())
+            && Objects.equals(a.getCompanySeq(), b.getCompanySeq())
+            && Objects.equals(a.getDepartmentSeq(), b.getDepartmentSeq())
+            && Objects.equals(a.getDutyCode(), b.getDutyCode())
+            && Objects.equals(a.getPositionCode(), b.getPositionCode())
+            && Objects.equals(a.getDepth(), b.getDepth());
+    }
+}
@@ -0,0 +1,175 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import dev.windfury.keycloak.bizbox.dto.UserMemberDTO;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Streaming lookup of one member in a userProfileInfo.do response.
+ * Members are read field by field and only the fields the authenticator maps are materialized. A lookup compares the
+ * loginId of each member first and skips the rest of a member with another loginId without binding it.
+ * A loginId listed more than once resolves to its first member; {@link BizboxMemberIndex} and {@link BizboxOrgSync}
+ * apply the same rule.
+ */
+final class BizboxMemberReader {
+
+    @FunctionalInterface
+    private interface FieldReader {
+        void read(UserMemberDTO member, JsonParser parser) throws IOException;
+    }
+
+    private static final String LIST_FIELD = "list";
+    private static final String LOGIN_ID_FIELD = "loginId";
+    private static final Map<String, FieldReader> FIELDS = new HashMap<>();
+
+    static {
+        FIELDS.put(LOGIN_ID_FIELD, (member, parser) -> member.setLoginId(parser.getValueAsString()));
+        FIELDS.put("name", (member, parser) -> member.setName(parser.getValueAsString()));
+        FIELDS.put("emailAddr", (member, parser) -> member.setEmailAddr(parser.getValueAsString()));
+        FIELDS.put("emailDomain", (member, parser) -> member.setEmailDomain(parser.getValueAsString()));
+        FIELDS.put("mobileTelNum", (member, parser) -> member.setMobileTelephoneNumber(parser.getValueAsString()));
+        FIELDS.put("telNum", (member, parser) -> member.setTelephoneNumber(parser.getValueAsString()));
+        FIELDS.put("faxNum", (member, parser) -> member.setFaxNumber(parser.getValueAsString()));
+        FIELDS.put("compSeq", (member, parser) -> member.setCompanySeq(parser.getValueAsString()));
+        FIELDS.put("deptSeq", (member, parser) -> member.setDepartmentSeq(parser.getValueAsString()));
+        FIELDS.put("dutyCode", (member, parser) -> member.setDutyCode(parser.getValueAsString()));
+        FIELDS.put("positionCode", (member, parser) -> member.setPositionCode(parser.getValueAsString()));
+        FIELDS.put("depth", (member, parser) -> member.setDepth(
+            parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsInt()));
+    }
+
+    private BizboxMemberReader() {
+    }
+
+    /**
+     * Reads the response until the member with the given loginId is found. The parser is not closed.
+     * @param parser parser positioned before the root object
+     * @param loginId login id to look for, compared ignoring case
+     * @return the first matching member with the mapped fields set, or null if there is none
+     * @throws IOException if the response is not valid JSON
+     */
+    static UserMemberDTO findMember(JsonParser parser, String loginId) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (!LIST_FIELD.equals(field) || value != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                UserMemberDTO member = matchMember(parser, loginId);
+                if (member != null) {
+                    return member;
+                }
+            }
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Reads every member of the response. The parser is not closed.
+     * @param parser parser positioned before the root object
+     * @param consumer receives each member with the mapped fields set
+     * @return number of members read
+     * @throws IOException if the response is not valid JSON
+     */
+    static int forEachMember(JsonParser parser, Consumer<UserMemberDTO> consumer) throws IOException {
+        int count = 0;
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return count;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (!LIST_FIELD.equals(field) || value != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                consumer.accept(readMember(parser));
+                count++;
+            }
+            return count;
+        }
+        return count;
+    }
+
+    /**
+     * Reads a member up to its loginId. Mapped fields before it are buffered, a member with another loginId is skipped
+     * without being bound, the fields of a matching one are bound from the buffer and the rest of the object.
+     * @return the member if its loginId matches, otherwise null with the parser at the end of the object
+     */
+    private static UserMemberDTO matchMember(JsonParser parser, String loginId) throws IOException {
+        TokenBuffer before = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (LOGIN_ID_FIELD.equals(field) && value.isScalarValue()) {
+                if (!loginId.equalsIgnoreCase(parser.getValueAsString())) {
+                    skipFields(parser);
+                    return null;
+                }
+                UserMemberDTO member = new UserMemberDTO();
+                member.setLoginId(parser.getValueAsString());
+                if (before != null) {
+                    before.writeEndObject();
+                    try (JsonParser buffered = before.asParser()) {
+                        buffered.nextToken();
+                        readFields(buffered, member);
+                    }
+                }
+                readFields(parser, member);
+                return member;
+            }
+            if (FIELDS.containsKey(field) && value.isScalarValue()) {
+                if (before == null) {
+                    before = new TokenBuffer(parser);
+                    before.writeStartObject();
+                }
+                before.writeFieldName(field);
+                before.copyCurrentEvent(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return null;
+    }
+
+    private static UserMemberDTO readMember(JsonParser parser) throws IOException {
+        UserMemberDTO member = new UserMemberDTO();
+        readFields(parser, member);
+        return member;
+    }
+
+    /**
+     * Sets the mapped fields of the member from the remaining fields of the current object.
+     */
+    private static void readFields(JsonParser parser, UserMemberDTO member) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            FieldReader reader = FIELDS.get(parser.currentName());
+            JsonToken value = parser.nextToken();
+            if (reader != null && value.isScalarValue()) {
+                reader.read(member, parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void skipFields(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package dev.windfury.keycloak.bizbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the Bizbox login pipeline, registered in the registry Keycloak exposes on its metrics endpoint.
+ * Meters are created once, recording a phase or an outcome is a lookup by enum ordinal.
+ * The disabled instance records nothing.
+ */
+public class BizboxMetrics {
+
+    /**
+     * Timed phases of a login.
+     */
+    public enum Phase {
+        /** encryption of the login parameters */
+        ENCRYPT("encrypt"),
+        /** actionLogin.do, including the scan of the returned page */
+        ACTION_LOGIN("action_login"),
+        /** Spring Security form post */
+        SECURITY_CHECK("security_check"),
+        /** userProfileInfo.do until the response headers arrived */
+        PROFILE("profile"),
+        /** streaming read of the member list, including the rest of the response body */
+        JSON_MAPPING("json_mapping"),
+        /** lookup, creation and sync of the Keycloak user */
+        USER_SYNC("user_sync"),
+        /** verification against the password migrated into Keycloak */
+        LOCAL_VERIFY("local_verify");
+
+        private final String tag;
+
+        Phase(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Outcomes of a login.
+     */
+    public enum Outcome {
+        SUCCESS("success"),
+        INVALID_CREDENTIALS("invalid_credentials"),
+        BIZBOX_ERROR("bizbox_error"),
+        TIMEOUT("timeout"),
+        UNAVAILABLE("unavailable"),
+        RATE_LIMITED("rate_limited"),
+        DEGRADED("degraded"),
+        LOCAL("local"),
+        ERROR("error");
+
+        private final String tag;
+
+        Outcome(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Caches of the authenticator.
+     */
+    public enum CacheName {
+        CREDENTIAL("credential"),
+        PROFILE("profile");
+
+        private final String tag;
+
+        CacheName(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static final BizboxMetrics DISABLED = new BizboxMetrics();
+
+    private final MeterRegistry registry;
+    private final Timer[] phases;
+    private final Counter[] outcomes;
+    private final Counter[] cacheHits;
+    private final Counter[] cacheMisses;
+    //pool gauges are added by the logins that create backends, concurrently
+    private final List<Meter> meters = new CopyOnWriteArrayList<>();
+    //backend name -> gauges of its pool
+    private final Map<String, List<Meter>> poolMeters = new ConcurrentHashMap<>();
+
+    private BizboxMetrics() {
+        this.registry = null;
+        this.phases = null;
+        this.outcomes = null;
+        this.cacheHits = null;
+        this.cacheMisses = null;
+    }
+
+    /**
+     * @param registry registry the meters are added to
+     */
+    public BizboxMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.phases = new Timer[Phase.values().length];
+        for (Phase phase : Phase.values()) {
+            phases[phase.ordinal()] = add(Timer.builder("bizbox.login.phase")
+                .description("Duration of a phase of the Bizbox login")
+                .tag("phase", phase.tag)
+                .publishPercentileHistogram()
+                .register(registry));
+        }
+        this.outcomes = new Counter[Outcome.values().length];
+        for (Outcome outcome : Outcome.values()) {
+            outcomes[outcome.ordinal()] = add(Counter.builder("bizbox.login.outcome")
+                .description("Bizbox logins by outcome")
+                .tag("outcome", outcome.tag)
+                .register(registry));
+        }
+        this.cacheHits = new Counter[CacheName.values().length];
+        this.cacheMisses = new Counter[CacheName.values().length];
+        for (CacheName cache : CacheName.values()) {
+            cacheHits[cache.ordinal()] = add(Counter.builder("bizbox.cache.requests")
+                .description("Lookups of the Bizbox caches")
+                .tag("cache", cache.tag).tag("result", "hit")
+                .register(registry));
+            cacheMisses[cache.ordinal()] = add(Counter.builder("bizbox.cache.requests")
+                .description("Lookups of the Bizbox caches")
+                .tag("cache", cache.tag).tag("result", "miss")
+                .register(registry));
+        }
+    }
+
+    /**
+     * @return instance that records nothing
+     */
+    public static BizboxMetrics disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Adds gauges of the leased, idle and pending connections of the pool of a backend.
+     * @param backend name of the Bizbox backend owning the pool
+     */
+    public void bindConnectionPool(String backend, PoolingHttpClientConnectionManager connectionManager) {
+        if (registry == null) {
+            return;
+        }
+        List<Meter> gauges = List.of(
+            add(Gauge.builder("bizbox.pool.connections", connectionManager, manager -> manager.getTotalStats().getLeased())
+                .description("Connections of the Bizbox pool").tag("backend", backend).tag("state", "leased").register(registry)),
+            add(Gauge.builder("bizbox.pool.connections", connectionManager, manager -> manager.getTotalStats().getAvailable())
+                .description("Connections of the Bizbox pool").tag("backend", backend).tag("state", "idle").register(registry)),
+            add(Gauge.builder("bizbox.pool.connections", connectionManager, manager -> manager.getTotalStats().getPending())
+                .description("Connections of the Bizbox pool").tag("backend", backend).tag("state", "pending").register(registry)),
+            add(Gauge.builder("bizbox.pool.max", connectionManager, manager -> manager.getTotalStats().getMax())
+                .description("Maximum connections of the Bizbox pool").tag("backend", backend).register(registry)));
+        poolMeters.put(backend, gauges);
+    }
+
+    /**
+     * Removes the gauges of the pool of a closed backend, which would otherwise keep the pool reachable.
+     * @param backend name of the Bizbox backend owning the pool
+     */
+    public void unbindConnectionPool(String backend) {
+        List<Meter> gauges = poolMeters.remove(backend);
+        if (registry == null || gauges == null) {
+            return;
+        }
+        gauges.forEach(registry::remove);
+        meters.removeAll(gauges);
+    }
+
+    /**
+     * Records a phase that started at the given {@link System#nanoTime()}.
+     */
+    public void record(Phase phase, long startNanos) {
+        if (phases != null) {
+            phases[phase.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void outcome(Outcome outcome) {
+        if (outcomes != null) {
+            outcomes[outcome.ordinal()].increment();
+        }
+    }
+
+    public void cache(CacheName cache, boolean hit) {
+        if (cacheHits != null) {
+            (hit ? cacheHits : cacheMisses)[cache.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Removes the meters from the registry, so a redeployed provider can register them again.
+     */
+    public void close() {
+        if (registry != null) {
+            meters.forEach(registry::remove);
+            meters.clear();
+            poolMeters.clear();
+        }
+    }
+
+    private <T extends Meter> T add(T meter) {
+        meters.add(meter);
+        return meter;
+    }
+}
@@ -0,0 +1,316 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.ScheduledTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Scheduled import of the Bizbox organization into Keycloak, so users exist before their first login.
+ * Each realm is imported from the backend of the first Bizbox execution found in it, whose service session reads every
+ * member from userProfileInfo.do; realms of a backend without a service account are skipped. Members are mapped like at
+ * login and imported in batches, each in its own transaction. A login id listed more than once is synced from its first
+ * member, like the lookup at login.
+ * Roles and groups are mapped with the configuration of the first Bizbox execution found in the realm.
+ * Users synced from Bizbox before that are missing from a non-empty member list are disabled and marked with
+ * {@link #DISABLED}; they are enabled again once they reappear. Users disabled by administrators stay disabled.
+ * <p>
+ * A full pass looks up every member and pages through every user of the realm. The node keeps the fingerprint of
+ * every member it imported, and while no other node ran the import since, see {@link #LAST_RUN}, later runs only touch
+ * members whose fingerprint changed, that were added, or that were removed. A full pass runs again after a restart,
+ * when another node ran the import, after a failed batch, and at least every {@link #FULL_PASS_INTERVAL}.
+ * {@link BizboxUserSync} still compares the fingerprint stored on every user and writes nothing for members that did
+ * not change.
+ */
+public class BizboxOrgSync implements ScheduledTask {
+
+    public static final String TASK_NAME = "bizbox-org-sync";
+
+    /**
+     * User attribute marking users disabled because Bizbox no longer lists them.
+     */
+    public static final String DISABLED = "bizbox-disabled";
+
+    /**
+     * Realm attribute identifying the last import into the realm, so a node knows whether its fingerprints are current.
+     */
+    static final String LAST_RUN = "bizbox-org-sync-run";
+
+    static final Duration FULL_PASS_INTERVAL = Duration.ofHours(24);
+
+    /**
+     * What a run of this node imported into a realm.
+     */
+    private static final class LastRun {
+        private final String id;
+        //fingerprint by lower case login id
+        private final Map<String, String> fingerprints;
+        private final long fullPassAt;
+
+        private LastRun(String id, Map<String, String> fingerprints, long fullPassAt) {
+            this.id = id;
+            this.fingerprints = fingerprints;
+            this.fullPassAt = fullPassAt;
+        }
+    }
+
+    /**
+     * Member of the list with its mapped access and fingerprint.
+     */
+    private static final class Member {
+        private final User user;
+        private final BizboxRoleMapping.Access access;
+        private final String fingerprint;
+
+        private Member(User user, BizboxRoleMapping.Access access, String fingerprint) {
+            this.user = user;
+            this.access = access;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(BizboxOrgSync.class);
+
+    private final BizboxBackends backends;
+    private final BizboxRealmCache realmCache;
+    private final List<String> realmNames;
+    private final int batchSize;
+    //by realm id
+    private final Map<String, LastRun> lastRuns = new ConcurrentHashMap<>();
+
+    /**
+     * @param backends backends the realms are imported from, each realm from the one of its Bizbox execution
+     * @param realmNames realms the organization is imported into
+     * @param batchSize number of users imported per transaction
+     */
+    public BizboxOrgSync(BizboxBackends backends, BizboxRealmCache realmCache, List<String> realmNames, int batchSize) {
+        this.backends = backends;
+        this.realmCache = realmCache;
+        this.realmNames = realmNames;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public String getTaskName() {
+        return TASK_NAME;
+    }
+
+    @Override
+    public void run(KeycloakSession session) {
+        //members are read once per backend, realms of the same Bizbox share them
+        Map<BizboxBackend, List<User>> members = new HashMap<>();
+        for (String realmName : realmNames) {
+            RealmModel realm = session.realms().getRealmByName(realmName);
+            if (realm == null) {
+                log.warn("Bizbox organization sync realm {} does not exist", realmName);
+                continue;
+            }
+            AuthenticatorConfigModel config = BizboxAuthenticatorFactory.findConfig(realm);
+            BizboxBackend backend;
+            try {
+                backend = backends.get(config);
+            } catch (RuntimeException e) {
+                log.warn("Bizbox organization sync of realm {} skipped, invalid Bizbox settings in authenticator config {}",
+                    realmName, config.getAlias(), e);
+                continue;
+            }
+            if (backend.getServiceSession() == null) {
+                log.warn("Bizbox organization sync of realm {} skipped, Bizbox {} has no service account", realmName, backend.getName());
+                continue;
+            }
+            List<User> users = members.computeIfAbsent(backend, this::readMembers);
+            if (users.isEmpty()) {
+                continue;
+            }
+            syncRealm(session, realm, config, users);
+        }
+    }
+
+    /**
+     * @return every member listed by the Bizbox of the backend, empty if the list could not be read or was empty
+     */
+    private List<User> readMembers(BizboxBackend backend) {
+        BizboxServiceSession serviceSession = backend.getServiceSession();
+        List<User> users = new ArrayList<>();
+        Set<String> loginIds = new HashSet<>();
+        String token = null;
+        try {
+            token = serviceSession.token(null);
+            backend.getApi().forEachProfileMember(token, member -> {
+                //the first member with a login id wins
+                if (member.getLoginId() != null && !member.getLoginId().isBlank()
+                        && loginIds.add(member.getLoginId().toLowerCase(Locale.ROOT))) {
+                    users.add(BizboxAuthenticator.toUser(member));
+                }
+            });
+        } catch (IOException e) {
+            if (e instanceof BizboxSessionExpiredException) {
+                //the next run logs in again
+                serviceSession.invalidate(token);
+            }
+            log.warn("Bizbox organization sync from {} skipped: {}", backend.getName(), e.getMessage());
+            return Collections.emptyList();
+        }
+        if (users.isEmpty()) {
+            //an empty list is a Bizbox fault rather than an empty organization
+            log.warn("Bizbox organization sync from {} skipped: no members were read", backend.getName());
+        }
+        return users;
+    }
+
+    /**
+     * Imports the members into the realm, all of them on a full pass, otherwise those changed since the last run.
+     */
+    private void syncRealm(KeycloakSession session, RealmModel realm, AuthenticatorConfigModel config, List<User> users) {
+        BizboxRoleMapping mapping = realmCache.mapping(realm, config);
+        Map<String, String> fingerprints = new HashMap<>(users.size() * 4 / 3 + 1);
+        List<Member> members = new ArrayList<>(users.size());
+        for (User user : users) {
+            BizboxRoleMapping.Access access = mapping.map(user);
+            String fingerprint = BizboxUserSync.fingerprint(user, access);
+            fingerprints.put(user.getUsername().toLowerCase(Locale.ROOT), fingerprint);
+            members.add(new Member(user, access, fingerprint));
+        }
+        LastRun lastRun = lastRuns.get(realm.getId());
+        long now = System.currentTimeMillis();
+        boolean fullPass = lastRun == null || !lastRun.id.equals(realm.getAttribute(LAST_RUN))
+            || now - lastRun.fullPassAt >= FULL_PASS_INTERVAL.toMillis();
+        List<Member> changed = members;
+        List<String> removed;
+        if (fullPass) {
+            removed = null;
+        } else {
+            changed = members.stream()
+                .filter(member -> !member.fingerprint.equals(lastRun.fingerprints.get(member.user.getUsername().toLowerCase(Locale.ROOT))))
+                .collect(Collectors.toList());
+            removed = lastRun.fingerprints.keySet().stream()
+                .filter(loginId -> !fingerprints.containsKey(loginId))
+                .collect(Collectors.toList());
+        }
+        boolean complete = importMembers(session.getKeycloakSessionFactory(), realm, changed, users.size(), fullPass);
+        complete &= disable(session, realm, removed != null ? removed : findMissing(session, realm, fingerprints.keySet()));
+        if (!complete) {
+            //the next run retries with a full pass
+            lastRuns.remove(realm.getId());
+            return;
+        }
+        String id = UUID.randomUUID().toString();
+        realm.setAttribute(LAST_RUN, id);
+        lastRuns.put(realm.getId(), new LastRun(id, fingerprints, fullPass ? now : lastRun.fullPassAt));
+    }
+
+    /**
+     * @return false if a batch failed
+     */
+    private boolean importMembers(KeycloakSessionFactory factory, RealmModel realm, List<Member> members, int listed,
+                                  boolean fullPass) {
+        String realmId = realm.getId();
+        int[] written = new int[1];
+        boolean complete = true;
+        for (int from = 0; from < members.size(); from += batchSize) {
+            List<Member> batch = members.subList(from, Math.min(from + batchSize, members.size()));
+            try {
+                KeycloakModelUtils.runJobInTransaction(factory, batchSession -> {
+                    RealmModel batchRealm = batchSession.realms().getRealm(realmId);
+                    for (Member member : batch) {
+                        User user = member.user;
+                        UserModel userModel = batchSession.users().getUserByUsername(batchRealm, user.getUsername());
+                        if (userModel == null) {
+                            userModel = batchSession.users().addUser(batchRealm, user.getUsername());
+                            userModel.setEnabled(true);
+                        } else if (userModel.getFirstAttribute(DISABLED) != null) {
+                            userModel.removeAttribute(DISABLED);
+                            userModel.setEnabled(true);
+                            written[0]++;
+                        }
+                        if (BizboxUserSync.sync(batchSession, batchRealm, userModel, user, member.access, realmCache)) {
+                            written[0]++;
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                complete = false;
+                log.warn("Bizbox organization sync of realm {} failed for a batch of {} users", realm.getName(), batch.size(), e);
+            }
+        }
+        log.info("Bizbox organization sync of realm {}: {} members, {} {}, {} users written", realm.getName(), listed,
+            members.size(), fullPass ? "looked up" : "changed since the last run", written[0]);
+        return complete;
+    }
+
+    /**
+     * @param loginIds lower case login ids of the member list
+     * @return usernames of the enabled users synced from Bizbox that are not in the member list
+     */
+    private List<String> findMissing(KeycloakSession session, RealmModel realm, Set<String> loginIds) {
+        List<String> missing = new ArrayList<>();
+        for (int first = 0; ; first += batchSize) {
+            List<UserModel> page = session.users().searchForUserStream(realm, Map.of(UserModel.SEARCH, "*"), first, batchSize)
+                .collect(Collectors.toList());
+            for (UserModel userModel : page) {
+                if (userModel.isEnabled() && userModel.getFirstAttribute(BizboxUserSync.FINGERPRINT) != null
+                        && !loginIds.contains(userModel.getUsername().toLowerCase(Locale.ROOT))) {
+                    missing.add(userModel.getUsername());
+                }
+            }
+            if (page.size() < batchSize) {
+                break;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Disables the given users if they are enabled and were synced from Bizbox.
+     * @return false if a batch failed
+     */
+    private boolean disable(KeycloakSession session, RealmModel realm, List<String> usernames) {
+        String realmId = realm.getId();
+        int[] disabled = new int[1];
+        boolean complete = true;
+        for (int from = 0; from < usernames.size(); from += batchSize) {
+            List<String> batch = usernames.subList(from, Math.min(from + batchSize, usernames.size()));
+            try {
+                KeycloakModelUtils.runJobInTransaction(session.getKeycloakSessionFactory(), batchSession -> {
+                    RealmModel batchRealm = batchSession.realms().getRealm(realmId);
+                    for (String username : batch) {
+                        UserModel userModel = batchSession.users().getUserByUsername(batchRealm, username);
+                        if (userModel != null && userModel.isEnabled()
+                                && userModel.getFirstAttribute(BizboxUserSync.FINGERPRINT) != null) {
+                            userModel.setEnabled(false);
+                            userModel.setSingleAttribute(DISABLED, "true");
+                            disabled[0]++;
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                complete = false;
+                log.warn("Bizbox organization sync of realm {} failed to disable {} users", realm.getName(), batch.size(), e);
+            }
+        }
+        if (disabled[0] > 0) {
+            log.info("Bizbox organization sync of realm {}: {} users missing from Bizbox disabled", realm.getName(), disabled[0]);
+        }
+        return complete;
+    }
+}
@@ -0,0 +1,227 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-loginId cache of the {@link User} mapped from userProfileInfo.do, in memory or, once {@link #useClusterCache}
+ * was called, in a {@link BizboxClusterCache} shared by every node.
+ * When an entry is older than the refresh-ahead threshold, it is still returned immediately
+ * while a background task reloads it, so the login path only waits for the profile call on a miss.
+ */
+public class BizboxProfileCache {
+
+    /**
+     * Loads the profile of a user, typically with the JSESSIONID of the login being processed.
+     * {@link #get} either loads or discards every loader it is given, exactly once.
+     */
+    @FunctionalInterface
+    public interface ProfileLoader {
+        User load() throws IOException;
+
+        /**
+         * Called instead of {@link #load} when the cache does not need the loader, e.g. to release the session it is bound to.
+         */
+        default void discard() {
+        }
+    }
+
+    private static final String PROFILE_PREFIX = "profile:";
+
+    private final Logger log = LoggerFactory.getLogger(BizboxProfileCache.class);
+
+    private final Cache<String, CachedProfile> profiles;
+    private final ConcurrentHashMap<String, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor refreshExecutor;
+    private final Duration ttl;
+    private final long refreshAfterMillis;
+    private final BizboxMetrics metrics;
+    private volatile BizboxClusterCache cluster;
+
+    /**
+     * @param ttl time after which a profile is no longer served
+     * @param refreshAhead time before expiry at which a background refresh is started
+     * @param maxSize maximum number of cached profiles
+     * @param refreshThreads number of background refresh threads
+     * @param metrics records hits and misses
+     */
+    public BizboxProfileCache(Duration ttl, Duration refreshAhead, long maxSize, int refreshThreads, BizboxMetrics metrics) {
+        this.metrics = metrics;
+        this.ttl = ttl;
+        this.profiles = Caffeine.newBuilder()
+            .expireAfterWrite(ttl)
+            .maximumSize(maxSize)
+            .build();
+        this.refreshAfterMillis = Math.max(0L, ttl.minus(refreshAhead).toMillis());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(16, refreshThreads * 64)),
+            runnable -> {
+                Thread thread = new Thread(runnable, "bizbox-profile-refresh-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Moves the cache into the cluster cache, profiles cached in memory so far are dropped.
+     */
+    public void useClusterCache(BizboxClusterCache cluster) {
+        this.cluster = cluster;
+        profiles.invalidateAll();
+    }
+
+    /**
+     * Returns the cached profile of a user, loading it inline on a miss.
+     * A hit near expiry schedules a background reload with the given loader, any other hit discards it.
+     * @param loginId login id of the user
+     * @param loader loader bound to the current login
+     * @return profile of the user, or null if the loader found none
+     * @throws IOException if an inline load failed
+     */
+    public User get(String loginId, ProfileLoader loader) throws IOException {
+        String key = normalize(loginId);
+        CachedProfile cached = lookup(key);
+        metrics.cache(BizboxMetrics.CacheName.PROFILE, cached != null);
+        if (cached == null) {
+            User user = loader.load();
+            if (user != null) {
+                store(key, user);
+            }
+            return user;
+        }
+        if (System.currentTimeMillis() - cached.loadedAt < refreshAfterMillis || !refreshAsync(key, loader)) {
+            loader.discard();
+        }
+        return cached.user;
+    }
+
+    /**
+     * Drops the profile of a user, on every node when the cache is shared.
+     */
+    public void invalidate(String loginId) {
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster != null) {
+            cluster.remove(PROFILE_PREFIX + normalize(loginId));
+            return;
+        }
+        profiles.invalidate(normalize(loginId));
+    }
+
+    /**
+     * Stops the refresh threads. Refreshes still queued are discarded, so their loaders release their sessions.
+     */
+    public void close() {
+        for (Runnable queued : refreshExecutor.shutdownNow()) {
+            if (queued instanceof Refresh) {
+                ((Refresh) queued).discard();
+            }
+        }
+    }
+
+    /**
+     * @return true if the loader was handed to a background refresh
+     */
+    private boolean refreshAsync(String key, ProfileLoader loader) {
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        try {
+            refreshExecutor.execute(new Refresh(key, loader));
+            return true;
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+            log.debug("Bizbox profile refresh queue is full, skipping refresh of {}", key);
+            return false;
+        }
+    }
+
+    /**
+     * Background reload of one profile, kept as a class so {@link #close} can discard the loaders still queued.
+     */
+    private final class Refresh implements Runnable {
+        private final String key;
+        private final ProfileLoader loader;
+
+        private Refresh(String key, ProfileLoader loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                User user = loader.load();
+                if (user != null) {
+                    store(key, user);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to refresh Bizbox profile of {}", key, e);
+            } finally {
+                refreshing.remove(key);
+            }
+        }
+
+        private void discard() {
+            try {
+                loader.discard();
+            } catch (RuntimeException e) {
+                log.warn("Failed to discard Bizbox profile refresh of {}", key, e);
+            } finally {
+                refreshing.remove(key);
+            }
+        }
+    }
+
+        private CachedProfile lookup(String key) {
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster == null) {
+            return profiles.getIfPresent(key);
+        }
+        //stored as the load time and the user as JSON, separated by a line break
+        String value = cluster.get(PROFILE_PREFIX + key);
+        int separator = value != null ? value.indexOf('\n') : -1;
+        if (separator < 0) {
+            return null;
+        }
+        User user = BizboxClusterCache.read(value.substring(separator + 1));
+        return user != null ? new CachedProfile(user, Long.parseLong(value.substring(0, separator))) : null;
+    }
+
+    private void store(String key, User user) {
+        BizboxClusterCache cluster = this.cluster;
+        if (cluster == null) {
+            profiles.put(key, new CachedProfile(user, System.currentTimeMillis()));
+            return;
+        }
+        cluster.put(PROFILE_PREFIX + key, System.currentTimeMillis() + "\n" + BizboxClusterCache.write(user), ttl);
+    }
+
+    private static String normalize(String loginId) {
+        return loginId.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class CachedProfile {
+        private final User user;
+        private final long loadedAt;
+
+        private CachedProfile(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
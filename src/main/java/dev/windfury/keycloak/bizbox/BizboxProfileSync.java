@@ -0,0 +1,114 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Profile sync of returning users after their login succeeded. The login only waits for Bizbox to accept the password;
+ * the profile is fetched and written to the Keycloak user afterwards on a bounded pool, each in its own transaction.
+ * A user has at most one sync per realm queued or running, logins arriving meanwhile are covered by it and never write
+ * the same user from two threads.
+ */
+public class BizboxProfileSync {
+
+    /**
+     * Outcome of {@link #submit}.
+     */
+    public enum Result {
+        /** the sync will run with the given loader */
+        QUEUED,
+        /** a sync of the user is already pending, the given loader is not used */
+        COALESCED,
+        /** the queue is full, the login has to sync inline */
+        REJECTED
+    }
+
+    private final Logger log = LoggerFactory.getLogger(BizboxProfileSync.class);
+
+    private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threads number of sync threads
+     * @param queueSize maximum number of syncs waiting for a thread
+     */
+    public BizboxProfileSync(int threads, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            runnable -> {
+                Thread thread = new Thread(runnable, "bizbox-profile-sync-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the sync of a user that already exists in the realm.
+     * @param factory factory the transaction of the sync is opened with
+     * @param realm realm of the user
+     * @param username username of the user
+     * @param loader loads the profile, typically with the session of the login
+     * @param mapping role and group mapping of the execution the user logged in with
+     * @param realmCache cache of realm lookups used by the sync
+     */
+    public Result submit(KeycloakSessionFactory factory, RealmModel realm, String username, BizboxProfileCache.ProfileLoader loader,
+                         BizboxRoleMapping mapping, BizboxRealmCache realmCache) {
+        String realmId = realm.getId();
+        String key = realmId + "/" + username.toLowerCase(Locale.ROOT);
+        if (pending.putIfAbsent(key, Boolean.TRUE) != null) {
+            return Result.COALESCED;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    sync(factory, realmId, loader, mapping, realmCache);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Deferred Bizbox profile sync of {} failed", username, e);
+                } finally {
+                    pending.remove(key);
+                }
+            });
+            return Result.QUEUED;
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+            return Result.REJECTED;
+        }
+    }
+
+    private void sync(KeycloakSessionFactory factory, String realmId, BizboxProfileCache.ProfileLoader loader,
+                      BizboxRoleMapping mapping, BizboxRealmCache realmCache) throws IOException {
+        User user = loader.load();
+        if (user == null) {
+            return;
+        }
+        BizboxRoleMapping.Access access = mapping.map(user);
+        KeycloakModelUtils.runJobInTransaction(factory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            UserModel userModel = realm != null ? session.users().getUserByUsername(realm, user.getUsername()) : null;
+            if (userModel != null && BizboxUserSync.sync(session, realm, userModel, user, access, realmCache)) {
+                log.debug("Updated user {} from Bizbox after the login", user.getUsername());
+            }
+        });
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,112 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets per username and per client address, checked before a login verifies its password anywhere, so bursts
+ * of bad passwords are rejected locally instead of turning into Bizbox load or password hashing.
+ * Each bucket is a single {@link AtomicLong} holding the time at which it will be full again (the GCRA form of a token
+ * bucket), taken with a compare-and-set loop, so concurrent logins never lock. Buckets live in bounded caches and expire
+ * once idle for the time they take to refill, when a new bucket would be identical. A bucket evicted by the size bound
+ * starts full again.
+ */
+public class BizboxRateLimiter {
+
+    private static final class Buckets {
+        //nanoseconds to earn one token
+        private final long interval;
+        //nanoseconds a bucket may run ahead of now, i.e. the burst beyond the first token
+        private final long tolerance;
+        private final Cache<String, AtomicLong> buckets;
+
+        private Buckets(int burst, int perMinute, long maxSize) {
+            this.interval = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute);
+            this.tolerance = interval * (Math.max(1, burst) - 1);
+            this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofNanos(interval + tolerance))
+                .maximumSize(maxSize)
+                .build();
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise nanoseconds until the next one
+         */
+        private long acquire(String key, long now) {
+            AtomicLong full = buckets.get(key, k -> new AtomicLong(now));
+            while (true) {
+                long current = full.get();
+                long start = current - now > 0 ? current : now;
+                long wait = start - now - tolerance;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (full.compareAndSet(current, start + interval)) {
+                    return 0;
+                }
+            }
+        }
+
+        private void refund(String key, long now) {
+            AtomicLong full = buckets.getIfPresent(key);
+            if (full != null) {
+                full.updateAndGet(current -> Math.max(now, current - interval));
+            }
+        }
+    }
+
+    private final Buckets usernames;
+    private final Buckets addresses;
+
+    /**
+     * @param usernameBurst logins of one username admitted at once
+     * @param usernamePerMinute logins of one username admitted per minute after the burst
+     * @param addressBurst logins from one client address admitted at once
+     * @param addressPerMinute logins from one client address admitted per minute after the burst
+     * @param maxSize maximum number of buckets of each kind
+     */
+    public BizboxRateLimiter(int usernameBurst, int usernamePerMinute, int addressBurst, int addressPerMinute, long maxSize) {
+        this.usernames = new Buckets(usernameBurst, usernamePerMinute, maxSize);
+        this.addresses = new Buckets(addressBurst, addressPerMinute, maxSize);
+    }
+
+    /**
+     * Takes a token from the bucket of the address and then from the bucket of the username.
+     * @param username username of the login, null to only limit the address
+     * @param address client address of the login, null to only limit the username
+     * @return 0 if the login may go to Bizbox, otherwise nanoseconds until it would be admitted
+     */
+    public long acquire(String username, String address) {
+        long now = System.nanoTime();
+        if (address != null) {
+            long wait = addresses.acquire(address, now);
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        if (username != null) {
+            return usernames.acquire(username.toLowerCase(Locale.ROOT), now);
+        }
+        return 0;
+    }
+
+    /**
+     * Gives back the tokens of a login admitted by {@link #acquire} that was answered without calling Bizbox.
+     * @param username username of the login, or null
+     * @param address client address of the login, or null
+     */
+    public void refund(String username, String address) {
+        long now = System.nanoTime();
+        if (address != null) {
+            addresses.refund(address, now);
+        }
+        if (username != null) {
+            usernames.refund(username.toLowerCase(Locale.ROOT), now);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleContainerModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.provider.ProviderEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-realm cache of parsed {@link BizboxRoleMapping}s and of the ids of the roles and groups they resolve to.
+ * Model instances are bound to a session, so only ids are kept and looked up again by id, which Keycloak's realm cache
+ * answers without a query. Entries of a realm are dropped on role, group or realm change events of this node;
+ * ids that went stale on another node are detected on lookup and resolved again by name.
+ */
+public class BizboxRealmCache {
+
+    private static class RealmEntry {
+        private final Map<String, String> roleIds = new ConcurrentHashMap<>();
+        private final Map<String, String> groupIds = new ConcurrentHashMap<>();
+        private final Map<String, ParsedMapping> mappings = new ConcurrentHashMap<>();
+    }
+
+    private static class ParsedMapping {
+        private final Map<String, String> source;
+        private final BizboxRoleMapping mapping;
+
+        private ParsedMapping(Map<String, String> source, BizboxRoleMapping mapping) {
+            this.source = source;
+            this.mapping = mapping;
+        }
+    }
+
+    private final Map<String, RealmEntry> realms = new ConcurrentHashMap<>();
+
+    /**
+     * @param realm realm of the flow
+     * @param config configuration of the execution, or null
+     * @return parsed mapping, re-parsed only when the configuration changed
+     */
+    public BizboxRoleMapping mapping(RealmModel realm, AuthenticatorConfigModel config) {
+        if (config == null || config.getConfig() == null) {
+            return BizboxRoleMapping.LEGACY;
+        }
+        Map<String, ParsedMapping> mappings = entry(realm).mappings;
+        ParsedMapping parsed = mappings.get(config.getId());
+        if (parsed == null || !Objects.equals(parsed.source, config.getConfig())) {
+            Map<String, String> source = new HashMap<>(config.getConfig());
+            parsed = new ParsedMapping(source, BizboxRoleMapping.parse(source));
+            mappings.put(config.getId(), parsed);
+        }
+        return parsed.mapping;
+    }
+
+    /**
+     * @return realm role with the given name, or null if it does not exist
+     */
+    public RoleModel role(RealmModel realm, String name) {
+        Map<String, String> roleIds = entry(realm).roleIds;
+        String id = roleIds.get(name);
+        if (id != null) {
+            RoleModel role = realm.getRoleById(id);
+            if (role != null && name.equals(role.getName())) {
+                return role;
+            }
+            roleIds.remove(name);
+        }
+        RoleModel role = realm.getRole(name);
+        if (role != null) {
+            roleIds.put(name, role.getId());
+        }
+        return role;
+    }
+
+    /**
+     * @return group with the given path, or null if it does not exist
+     */
+    public GroupModel group(KeycloakSession session, RealmModel realm, String path) {
+        Map<String, String> groupIds = entry(realm).groupIds;
+        String id = groupIds.get(path);
+        if (id != null) {
+            GroupModel group = session.groups().getGroupById(realm, id);
+            //a group renamed or moved since keeps its id, so the path is checked like the name of a role
+            if (group != null && path.equals(KeycloakModelUtils.buildGroupPath(group))) {
+                return group;
+            }
+            groupIds.remove(path);
+        }
+        GroupModel group = KeycloakModelUtils.findGroupByPath(session, realm, path);
+        if (group != null) {
+            groupIds.put(path, group.getId());
+        }
+        return group;
+    }
+
+    public void invalidate(String realmId) {
+        realms.remove(realmId);
+    }
+
+    /**
+     * Drops the entries of the realm an event belongs to. Registered with the session factory in postInit.
+     */
+    public void onEvent(ProviderEvent event) {
+        if (event instanceof RealmModel.RealmRemovedEvent) {
+            invalidate(((RealmModel.RealmRemovedEvent) event).getRealm().getId());
+        } else if (event instanceof GroupModel.GroupEvent) {
+            invalidate(((GroupModel.GroupEvent) event).getRealm().getId());
+        } else if (event instanceof RoleModel.RoleNameChangeEvent) {
+            invalidate(((RoleModel.RoleNameChangeEvent) event).getRealm().getId());
+        } else if (event instanceof RoleContainerModel.RoleRemovedEvent) {
+            RoleContainerModel container = ((RoleContainerModel.RoleRemovedEvent) event).getRole().getContainer();
+            if (container instanceof RealmModel) {
+                invalidate(((RealmModel) container).getId());
+            }
+        }
+    }
+
+    private RealmEntry entry(RealmModel realm) {
+        return realms.computeIfAbsent(realm.getId(), id -> new RealmEntry());
+    }
+}
@@ -0,0 +1,166 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.keycloak.models.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Turns the organization data of a Bizbox member into Keycloak role names and group paths.
+ * Rules are written as {@code <field>:<value>=<target>}, e.g. {@code dutyCode:D01=manager} or
+ * {@code compSeq:1000=/company-a/{deptSeq}}. The value {@code *} matches any non-empty value and
+ * {@code {field}} placeholders in the target are replaced with the member's values.
+ * Supported fields are compSeq, deptSeq, dutyCode, positionCode and depth.
+ */
+public class BizboxRoleMapping {
+
+    public static final String DEFAULT_ROLES = "defaultRoles";
+    public static final String ROLE_MAPPINGS = "roleMappings";
+    public static final String GROUP_MAPPINGS = "groupMappings";
+    /**
+     * Role granted when the authenticator has no configuration.
+     */
+    public static final String LEGACY_DEFAULT_ROLE = "default-roles-ez-test";
+
+    private static final Logger log = LoggerFactory.getLogger(BizboxRoleMapping.class);
+    private static final Map<String, Function<User, String>> FIELDS = Map.of(
+        "compSeq", User::getCompanySeq,
+        "deptSeq", User::getDepartmentSeq,
+        "dutyCode", User::getDutyCode,
+        "positionCode", User::getPositionCode,
+        "depth", user -> user.getDepth() != null ? user.getDepth().toString() : null
+    );
+
+    static final BizboxRoleMapping LEGACY = new BizboxRoleMapping(
+        Collections.singletonList(LEGACY_DEFAULT_ROLE), Collections.emptyList(), Collections.emptyList());
+
+    /**
+     * Roles and groups a user should have.
+     */
+    public static class Access {
+        private final Set<String> roles;
+        private final Set<String> groups;
+
+        Access(Set<String> roles, Set<String> groups) {
+            this.roles = roles;
+            this.groups = groups;
+        }
+
+        public Set<String> getRoles() {
+            return roles;
+        }
+
+        public Set<String> getGroups() {
+            return groups;
+        }
+    }
+
+    private static class Rule {
+        private final Function<User, String> field;
+        private final String value;
+        private final String target;
+
+        private Rule(Function<User, String> field, String value, String target) {
+            this.field = field;
+            this.value = value;
+            this.target = target;
+        }
+
+        private String apply(User user) {
+            String actual = field.apply(user);
+            if (actual == null || actual.isEmpty() || (!"*".equals(value) && !value.equals(actual))) {
+                return null;
+            }
+            String resolved = target;
+            if (resolved.indexOf('{') >= 0) {
+                for (Map.Entry<String, Function<User, String>> entry : FIELDS.entrySet()) {
+                    String replacement = entry.getValue().apply(user);
+                    resolved = resolved.replace("{" + entry.getKey() + "}", replacement != null ? replacement : "");
+                }
+            }
+            return resolved;
+        }
+    }
+
+    private final List<String> defaultRoles;
+    private final List<Rule> roleRules;
+    private final List<Rule> groupRules;
+
+    private BizboxRoleMapping(List<String> defaultRoles, List<Rule> roleRules, List<Rule> groupRules) {
+        this.defaultRoles = defaultRoles;
+        this.roleRules = roleRules;
+        this.groupRules = groupRules;
+    }
+
+    /**
+     * @param config authenticator configuration, or null
+     * @return mapping described by the configuration
+     */
+    public static BizboxRoleMapping parse(Map<String, String> config) {
+        if (config == null) {
+            return LEGACY;
+        }
+        String defaultRoles = config.get(DEFAULT_ROLES);
+        return new BizboxRoleMapping(
+            defaultRoles != null ? split(defaultRoles) : Collections.singletonList(LEGACY_DEFAULT_ROLE),
+            parseRules(config.get(ROLE_MAPPINGS)),
+            parseRules(config.get(GROUP_MAPPINGS)));
+    }
+
+    public Access map(User user) {
+        Set<String> roles = new LinkedHashSet<>(defaultRoles);
+        if (user.getRoles() != null) {
+            roles.addAll(user.getRoles());
+        }
+        for (Rule rule : roleRules) {
+            String role = rule.apply(user);
+            if (role != null && !role.isEmpty()) {
+                roles.add(role);
+            }
+        }
+        Set<String> groups = new LinkedHashSet<>();
+        for (Rule rule : groupRules) {
+            String group = rule.apply(user);
+            if (group != null && !group.isEmpty()) {
+                groups.add(group.startsWith("/") ? group : "/" + group);
+            }
+        }
+        return new Access(roles, groups);
+    }
+
+    private static List<Rule> parseRules(String value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (String rule : split(value)) {
+            int colon = rule.indexOf(':');
+            int equals = rule.indexOf('=', colon + 1);
+            Function<User, String> field = colon > 0 ? FIELDS.get(rule.substring(0, colon).trim()) : null;
+            if (field == null || equals < 0) {
+                log.warn("Ignoring invalid Bizbox mapping rule '{}', expected <field>:<value>=<target> with field one of {}", rule, FIELDS.keySet());
+                continue;
+            }
+            rules.add(new Rule(field, rule.substring(colon + 1, equals).trim(), rule.substring(equals + 1).trim()));
+        }
+        return rules;
+    }
+
+    private static List<String> split(String value) {
+        List<String> values = new ArrayList<>();
+        for (String part : value.split(Constants.CFG_DELIMITER)) {
+            if (!part.isBlank()) {
+                values.add(part.trim());
+            }
+        }
+        return values;
+    }
+}
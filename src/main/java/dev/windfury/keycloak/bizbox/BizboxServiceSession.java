@@ -0,0 +1,143 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.UserMemberDTO;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Long-lived Bizbox session of a service account, shared by profile lookups and the organization import.
+ * The session is renewed after its maximum age, and right away when Bizbox answers a request of it with 401 or its login
+ * page. A replaced session is handed to the {@link BizboxSessionReaper} when one is configured.
+ */
+public class BizboxServiceSession {
+
+    private final BizboxExternalApi api;
+    private final BizboxSessionReaper reaper;
+    private final String username;
+    private final String password;
+    private final long maxAgeMillis;
+    private String token;
+    private long issuedAt;
+    //login in progress, completed with its session
+    private CompletableFuture<String> renewal;
+
+    /**
+     * @param reaper logs out replaced sessions, or null
+     * @param username Bizbox service account
+     * @param password password of the service account
+     * @param maxAge age after which the session is renewed
+     */
+    public BizboxServiceSession(BizboxExternalApi api, BizboxSessionReaper reaper, String username, String password, Duration maxAge) {
+        this.api = api;
+        this.reaper = reaper;
+        this.username = username;
+        //the login form submits the password base64 encoded
+        this.password = Base64.getEncoder().encodeToString(password.getBytes(StandardCharsets.UTF_8));
+        this.maxAgeMillis = maxAge.toMillis();
+    }
+
+    /**
+     * @param deadline deadline of the login that needs the session, or null
+     * @return JSESSIONID of the current session, logging in first if there is none or it is too old. One caller logs in,
+     *         concurrent callers wait for its session; nobody holds the lock of this session during the login.
+     * @throws IOException if Bizbox rejected the service account or could not be reached
+     */
+    public String token(BizboxDeadline deadline) throws IOException {
+        CompletableFuture<String> pending;
+        boolean renewing = false;
+        synchronized (this) {
+            if (token != null && System.currentTimeMillis() - issuedAt < maxAgeMillis) {
+                return token;
+            }
+            if (renewal == null) {
+                renewal = new CompletableFuture<>();
+                renewing = true;
+            }
+            pending = renewal;
+        }
+        return renewing ? renew(pending, deadline) : await(pending, deadline);
+    }
+
+    /**
+     * Drops the session if it is still the current one, the next {@link #token} logs in again.
+     */
+    public synchronized void invalidate(String expired) {
+        if (expired != null && expired.equals(token)) {
+            replace(null);
+        }
+    }
+
+    /**
+     * Looks up one member with the service session. When Bizbox no longer accepts the session, which shows as 401 or
+     * a login page instead of JSON, the session is renewed and the lookup retried once. Any other failure, including
+     * an error status or a missing member, leaves the session alone.
+     * @param loginId login id of the member
+     * @param deadline deadline of the login
+     * @return the member, or null if there is none
+     */
+    public UserMemberDTO getProfileMember(String loginId, BizboxDeadline deadline) throws IOException {
+        String current = token(deadline);
+        try {
+            return api.getProfileMemberToExternalApi(current, loginId, deadline);
+        } catch (BizboxSessionExpiredException e) {
+            invalidate(current);
+        }
+        return api.getProfileMemberToExternalApi(token(deadline), loginId, deadline);
+    }
+
+    private String renew(CompletableFuture<String> pending, BizboxDeadline deadline) throws IOException {
+        try {
+            String renewed = api.getTokenAuthenticateToExternalApi(username, password, deadline);
+            if (renewed == null) {
+                throw new IOException("Bizbox rejected the service account " + username);
+            }
+            synchronized (this) {
+                replace(renewed);
+                renewal = null;
+            }
+            pending.complete(renewed);
+            return renewed;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                renewal = null;
+            }
+            pending.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private String await(CompletableFuture<String> pending, BizboxDeadline deadline) throws IOException {
+        try {
+            return deadline != null
+                ? pending.get(Math.max(0L, deadline.remainingMillis()), TimeUnit.MILLISECONDS)
+                : pending.get();
+        } catch (TimeoutException e) {
+            throw new BizboxTimeoutException(deadline.getBudget(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Bizbox service session");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Bizbox service session login failed", cause);
+        }
+    }
+
+    private void replace(String renewed) {
+        if (token != null && reaper != null) {
+            reaper.logout(token);
+        }
+        token = renewed;
+        issuedAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,13 @@
+package dev.windfury.keycloak.bizbox;
+
+import java.io.IOException;
+
+/**
+ * Thrown when Bizbox no longer accepts a session, i.e. userProfileInfo.do answered 401 or its login page instead of JSON.
+ */
+public class BizboxSessionExpiredException extends IOException {
+
+    public BizboxSessionExpiredException(String url) {
+        super("Bizbox no longer accepts the session used for " + url);
+    }
+}
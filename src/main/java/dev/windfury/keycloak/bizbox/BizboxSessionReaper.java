@@ -0,0 +1,91 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs out Bizbox sessions that are no longer needed, off the login path.
+ * Sessions are queued and a single background thread logs out up to one batch per interval, so the logout load
+ * on Bizbox stays bounded at peak. When the queue is full further sessions are left to Bizbox's session timeout.
+ */
+public class BizboxSessionReaper {
+
+    private final Logger log = LoggerFactory.getLogger(BizboxSessionReaper.class);
+
+    private final BizboxExternalApi api;
+    private final BlockingQueue<String> sessions;
+    private final int batchSize;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param interval time between batches
+     * @param batchSize maximum number of sessions logged out per batch
+     * @param queueSize maximum number of queued sessions
+     */
+    public BizboxSessionReaper(BizboxExternalApi api, Duration interval, int batchSize, int queueSize) {
+        this.api = api;
+        this.sessions = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.batchSize = Math.max(1, batchSize);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bizbox-session-logout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.max(1L, interval.toMillis());
+        this.executor.scheduleWithFixedDelay(this::logoutBatch, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a session for logout. Never blocks.
+     * @param token JSESSIONID of the session
+     */
+    public void logout(String token) {
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        if (!sessions.offer(token)) {
+            log.debug("Bizbox logout queue is full, leaving a session to time out");
+        }
+    }
+
+    /**
+     * Stops the background thread and logs out one last batch of the queued sessions, the rest is left to Bizbox's
+     * session timeout.
+     */
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                logoutBatch();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void logoutBatch() {
+        List<String> batch = new ArrayList<>(batchSize);
+        sessions.drainTo(batch, batchSize);
+        int failed = 0;
+        for (String token : batch) {
+            try {
+                api.logout(token);
+            } catch (IOException | RuntimeException e) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            log.warn("Failed to log out {} of {} Bizbox sessions", failed, batch.size());
+        }
+    }
+}
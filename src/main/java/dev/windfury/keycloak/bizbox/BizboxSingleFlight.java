@@ -0,0 +1,120 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces concurrent Bizbox logins of the same identity on this node.
+ * The first login of a username and password runs the Bizbox calls, identical logins arriving meanwhile wait for its
+ * result instead of calling Bizbox themselves. Waiters are bounded per identity and wait at most for the rest of
+ * their own login deadline. Identities are keyed by an HMAC of username and password with a random per-node key.
+ */
+public class BizboxSingleFlight {
+
+    /**
+     * Runs the Bizbox calls of the leading login.
+     */
+    @FunctionalInterface
+    public interface LoginCall {
+        User call() throws IOException;
+    }
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static class Flight {
+        private final CompletableFuture<User> result = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+    }
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final SecretKeySpec key;
+    private final int maxWaiters;
+
+    /**
+     * @param maxWaiters maximum number of logins waiting for one call, further logins fail fast
+     */
+    public BizboxSingleFlight(int maxWaiters) {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.maxWaiters = Math.max(0, maxWaiters);
+    }
+
+    /**
+     * @param username username of the login
+     * @param password password as received in the form
+     * @param deadline deadline of the login, bounds the wait for another login's call
+     * @param call Bizbox calls, run only if no identical login is in flight
+     * @return result of the call, shared by every coalesced login
+     * @throws BizboxUnavailableException if too many logins already wait for the same call
+     * @throws BizboxTimeoutException if the deadline ran out while waiting
+     */
+    public User execute(String username, String password, BizboxDeadline deadline, LoginCall call) throws IOException {
+        String identity = identity(username, password);
+        Flight flight = new Flight();
+        Flight inFlight = flights.putIfAbsent(identity, flight);
+        if (inFlight == null) {
+            return lead(identity, flight, call);
+        }
+        if (inFlight.waiters.incrementAndGet() > maxWaiters) {
+            inFlight.waiters.decrementAndGet();
+            throw BizboxUnavailableException.tooManyWaiters(maxWaiters);
+        }
+        try {
+            return inFlight.result.get(Math.max(0L, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new BizboxTimeoutException(deadline.getBudget(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a concurrent Bizbox login");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Concurrent Bizbox login failed", cause);
+        } finally {
+            inFlight.waiters.decrementAndGet();
+        }
+    }
+
+    private User lead(String identity, Flight flight, LoginCall call) throws IOException {
+        try {
+            User user = call.call();
+            flight.result.complete(user);
+            return user;
+        } catch (IOException | RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(identity, flight);
+        }
+    }
+
+    private String identity(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            mac.update(username.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to key Bizbox login", e);
+        }
+    }
+}
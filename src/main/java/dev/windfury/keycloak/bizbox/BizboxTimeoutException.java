@@ -0,0 +1,17 @@
+package dev.windfury.keycloak.bizbox;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+/**
+ * Thrown when a Bizbox login did not complete within its deadline budget and its in-flight request was aborted.
+ */
+public class BizboxTimeoutException extends InterruptedIOException {
+
+    public BizboxTimeoutException(Duration budget, Throwable cause) {
+        super("Bizbox login exceeded its deadline of " + budget.toMillis() + "ms");
+        if (cause != null) {
+            initCause(cause);
+        }
+    }
+}
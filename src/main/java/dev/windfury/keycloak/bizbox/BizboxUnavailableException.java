@@ -0,0 +1,47 @@
+package dev.windfury.keycloak.bizbox;
+
+import java.io.IOException;
+
+/**
+ * Thrown without calling Bizbox when the circuit breaker of the endpoint is open
+ * or too many logins already wait for the same Bizbox call.
+ * The circuit breakers are kept per node: Bizbox only counts as failing when the breaker of the path is open on every
+ * node, see {@link #isCircuitOpen()}.
+ */
+public class BizboxUnavailableException extends IOException {
+
+    private final boolean circuitOpen;
+
+    public BizboxUnavailableException(String endpoint) {
+        this(endpoint, true);
+    }
+
+    /**
+     * @param endpoint name of the open circuit breaker
+     * @param circuitOpen true if the breaker of the path is open on every node
+     */
+    BizboxUnavailableException(String endpoint, boolean circuitOpen) {
+        super("Bizbox circuit breaker " + endpoint + " is open");
+        this.circuitOpen = circuitOpen;
+    }
+
+    private BizboxUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+        this.circuitOpen = false;
+    }
+
+    /**
+     * @param maxWaiters limit of logins waiting for one call
+     */
+    static BizboxUnavailableException tooManyWaiters(int maxWaiters) {
+        return new BizboxUnavailableException("More than " + maxWaiters + " logins are waiting for the same Bizbox login", null);
+    }
+
+    /**
+     * @return true if the circuit breakers of every node reported Bizbox as failing, false if one node's breaker or
+     *         this Keycloak node turned the login away
+     */
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+}
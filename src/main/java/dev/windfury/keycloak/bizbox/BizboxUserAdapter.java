@@ -0,0 +1,175 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.ReadOnlyException;
+import org.keycloak.storage.adapter.AbstractUserAdapterFederatedStorage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Keycloak view of a member of the {@link BizboxMemberIndex}.
+ * Values read from Bizbox are read-only. Roles, groups, required actions and other attributes are kept in Keycloak's
+ * federated storage, so {@link BizboxUserSync} can still grant mapped roles and groups.
+ */
+public class BizboxUserAdapter extends AbstractUserAdapterFederatedStorage {
+
+    private final User user;
+
+    public BizboxUserAdapter(KeycloakSession session, RealmModel realm, ComponentModel storageProviderModel, User user) {
+        super(session, realm, storageProviderModel);
+        this.user = user;
+    }
+
+    @Override
+    public String getUsername() {
+        return user.getUsername();
+    }
+
+    @Override
+    public void setUsername(String username) {
+        throw new ReadOnlyException("Bizbox user is read-only");
+    }
+
+    @Override
+    public String getFirstName() {
+        return user.getFirstName();
+    }
+
+    @Override
+    public void setFirstName(String firstName) {
+        checkUnchanged(user.getFirstName(), firstName);
+    }
+
+    @Override
+    public String getLastName() {
+        return user.getLastName();
+    }
+
+    @Override
+    public void setLastName(String lastName) {
+        checkUnchanged(user.getLastName(), lastName);
+    }
+
+    @Override
+    public String getEmail() {
+        return user.getEmail();
+    }
+
+    @Override
+    public void setEmail(String email) {
+        checkUnchanged(user.getEmail(), email);
+    }
+
+    @Override
+    public String getFirstAttribute(String name) {
+        if (isBizboxAttribute(name)) {
+            return bizboxAttribute(name);
+        }
+        return super.getFirstAttribute(name);
+    }
+
+    @Override
+    public Stream<String> getAttributeStream(String name) {
+        if (isBizboxAttribute(name)) {
+            String value = bizboxAttribute(name);
+            return value != null ? Stream.of(value) : Stream.empty();
+        }
+        return super.getAttributeStream(name);
+    }
+
+    @Override
+    public Map<String, List<String>> getAttributes() {
+        Map<String, List<String>> attributes = super.getAttributes();
+        putAttribute(attributes, UserModel.USERNAME, user.getUsername());
+        putAttribute(attributes, UserModel.FIRST_NAME, user.getFirstName());
+        putAttribute(attributes, UserModel.LAST_NAME, user.getLastName());
+        putAttribute(attributes, UserModel.EMAIL, user.getEmail());
+        putAttribute(attributes, BizboxUserSync.MOBILE_TEL_NUMBER, user.getMobileTelephoneNumber());
+        putAttribute(attributes, BizboxUserSync.INNER_TEL_NUMBER, user.getInnerTelephoneNumber());
+        putAttribute(attributes, BizboxUserSync.FAX_TEL_NUMBER, user.getFaxTelephoneNumber());
+        return attributes;
+    }
+
+    @Override
+    public void setSingleAttribute(String name, String value) {
+        if (isBizboxAttribute(name)) {
+            checkUnchanged(bizboxAttribute(name), value);
+            return;
+        }
+        super.setSingleAttribute(name, value);
+    }
+
+    @Override
+    public void setAttribute(String name, List<String> values) {
+        if (isBizboxAttribute(name)) {
+            checkUnchanged(bizboxAttribute(name), values == null || values.isEmpty() ? null : values.get(0));
+            return;
+        }
+        super.setAttribute(name, values);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        if (isBizboxAttribute(name)) {
+            throw new ReadOnlyException("Bizbox attribute " + name + " is read-only");
+        }
+        super.removeAttribute(name);
+    }
+
+    private static boolean isBizboxAttribute(String name) {
+        switch (name) {
+            case UserModel.USERNAME:
+            case UserModel.FIRST_NAME:
+            case UserModel.LAST_NAME:
+            case UserModel.EMAIL:
+            case BizboxUserSync.MOBILE_TEL_NUMBER:
+            case BizboxUserSync.INNER_TEL_NUMBER:
+            case BizboxUserSync.FAX_TEL_NUMBER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private String bizboxAttribute(String name) {
+        switch (name) {
+            case UserModel.USERNAME:
+                return user.getUsername();
+            case UserModel.FIRST_NAME:
+                return user.getFirstName();
+            case UserModel.LAST_NAME:
+                return user.getLastName();
+            case UserModel.EMAIL:
+                return user.getEmail();
+            case BizboxUserSync.MOBILE_TEL_NUMBER:
+                return user.getMobileTelephoneNumber();
+            case BizboxUserSync.INNER_TEL_NUMBER:
+                return user.getInnerTelephoneNumber();
+            default:
+                return user.getFaxTelephoneNumber();
+        }
+    }
+
+    private static void putAttribute(Map<String, List<String>> attributes, String name, String value) {
+        if (value != null) {
+            attributes.put(name, Collections.singletonList(value));
+        } else {
+            attributes.remove(name);
+        }
+    }
+
+    //writing back the value Bizbox already has is a no-op, so callers that only write changes work unmodified
+    private static void checkUnchanged(String current, String value) {
+        if (!Objects.equals(current, value)) {
+            throw new ReadOnlyException("Bizbox user is read-only");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.StorageId;
+import org.keycloak.storage.UserStorageProvider;
+import org.keycloak.storage.user.UserLookupProvider;
+
+/**
+ * Read-only user federation answering lookups from the {@link BizboxMemberIndex}, so Bizbox users do not have to be
+ * imported into the Keycloak database. Passwords are still verified by the Bizbox authenticator.
+ */
+public class BizboxUserStorageProvider implements UserStorageProvider, UserLookupProvider {
+
+    private final KeycloakSession session;
+
+    private final ComponentModel model;
+
+    private final BizboxMemberIndex index;
+
+    public BizboxUserStorageProvider(KeycloakSession session, ComponentModel model, BizboxMemberIndex index) {
+        this.session = session;
+        this.model = model;
+        this.index = index;
+    }
+
+    @Override
+    public UserModel getUserById(RealmModel realm, String id) {
+        return adapt(realm, index.getByUsername(StorageId.externalId(id)));
+    }
+
+    @Override
+    public UserModel getUserByUsername(RealmModel realm, String username) {
+        return adapt(realm, index.getByUsername(username));
+    }
+
+    @Override
+    public UserModel getUserByEmail(RealmModel realm, String email) {
+        return adapt(realm, index.getByEmail(email));
+    }
+
+    private UserModel adapt(RealmModel realm, User user) {
+        return user != null ? new BizboxUserAdapter(session, realm, model, user) : null;
+    }
+
+    @Override
+    public void close() {
+        // The index is shared and owned by the factory
+    }
+}
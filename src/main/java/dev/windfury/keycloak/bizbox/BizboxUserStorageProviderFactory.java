@@ -0,0 +1,216 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.component.ComponentValidationException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderConfigurationBuilder;
+import org.keycloak.storage.UserStorageProvider;
+import org.keycloak.storage.UserStorageProviderFactory;
+import org.keycloak.storage.UserStorageProviderModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates {@link BizboxUserStorageProvider}s. Each user federation component owns one {@link BizboxMemberIndex},
+ * loaded in the background when the component is first used and refreshed at a fixed interval.
+ * Bizbox calls go through the backend of the first Bizbox execution configured in the component's realm, with its http
+ * client and circuit breakers, so the index lists the members of the Bizbox the realm's logins go to.
+ * Realms with an enabled Bizbox user federation only know its members: the authenticator never adds users to the
+ * Keycloak database next to it, see {@link #findFederation}.
+ */
+public class BizboxUserStorageProviderFactory implements UserStorageProviderFactory<BizboxUserStorageProvider> {
+
+    public static final String PROVIDER_ID = "bizbox-user-storage";
+
+    static final String USERNAME = "bizboxUsername";
+    static final String PASSWORD = "bizboxPassword";
+    static final String REFRESH_INTERVAL = "indexRefreshInterval";
+
+    /**
+     * Minimum time between index refreshes caused by logins of members missing from the index.
+     */
+    static final Duration MISS_REFRESH_INTERVAL = Duration.ofSeconds(30);
+
+    private final Logger log = LoggerFactory.getLogger(BizboxUserStorageProviderFactory.class);
+
+    private final Map<String, IndexHolder> indexes = new ConcurrentHashMap<>();
+
+    private KeycloakSessionFactory sessionFactory;
+
+    private BizboxAuthenticatorFactory authenticatorFactory;
+
+    private ScheduledExecutorService refreshScheduler;
+
+    private static class IndexHolder {
+        private final Map<String, List<String>> config;
+        private final BizboxMemberIndex index;
+        private ScheduledFuture<?> refresh;
+
+        private IndexHolder(Map<String, List<String>> config, BizboxMemberIndex index) {
+            this.config = config;
+            this.index = index;
+        }
+    }
+
+    @Override
+    public BizboxUserStorageProvider create(KeycloakSession session, ComponentModel model) {
+        return new BizboxUserStorageProvider(session, model, index(model));
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        sessionFactory = factory;
+        authenticatorFactory = (BizboxAuthenticatorFactory) factory.getProviderFactory(Authenticator.class, BizboxAuthenticatorFactory.PROVIDER_ID);
+        refreshScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bizbox-member-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void validateConfiguration(KeycloakSession session, RealmModel realm, ComponentModel config) throws ComponentValidationException {
+        if (isBlank(config.get(USERNAME)) || isBlank(config.get(PASSWORD))) {
+            throw new ComponentValidationException("Bizbox username and password are required");
+        }
+        if (config.get(REFRESH_INTERVAL, 600L) <= 0L) {
+            throw new ComponentValidationException("Index refresh interval must be positive");
+        }
+    }
+
+    @Override
+    public void onUpdate(KeycloakSession session, RealmModel realm, ComponentModel oldModel, ComponentModel newModel) {
+        stop(newModel.getId());
+    }
+
+    @Override
+    public void preRemove(KeycloakSession session, RealmModel realm, ComponentModel model) {
+        stop(model.getId());
+    }
+
+    @Override
+    public void close() {
+        indexes.keySet().forEach(this::stop);
+        if (refreshScheduler != null) {
+            refreshScheduler.shutdownNow();
+            refreshScheduler = null;
+        }
+    }
+
+    /**
+     * @return the enabled Bizbox user federation of the realm, or null if the realm has none
+     */
+    static UserStorageProviderModel findFederation(RealmModel realm) {
+        return realm.getComponentsStream(realm.getId(), UserStorageProvider.class.getName())
+            .filter(component -> PROVIDER_ID.equals(component.getProviderId()))
+            .map(UserStorageProviderModel::new)
+            .filter(UserStorageProviderModel::isEnabled)
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * Refreshes the index of the federation after a login of a member missing from it, see
+     * {@link BizboxMemberIndex#refreshOnMiss}.
+     * @param realm realm of the federation
+     * @throws IOException if the index was never loaded or the refresh failed
+     */
+    void refreshOnMiss(ComponentModel model, RealmModel realm) throws IOException {
+        BizboxMemberIndex index = index(model);
+        if (!index.isLoaded()) {
+            throw new IOException("Bizbox member index of " + model.getName() + " is not loaded yet");
+        }
+        index.refreshOnMiss(authenticatorFactory.getBackend(realm).getApi(), MISS_REFRESH_INTERVAL);
+    }
+
+    /**
+     * @return index of the component, started on first use and restarted when its configuration changed on another node
+     */
+    private BizboxMemberIndex index(ComponentModel model) {
+        IndexHolder holder = indexes.get(model.getId());
+        if (holder != null && holder.config.equals(model.getConfig())) {
+            return holder.index;
+        }
+        synchronized (indexes) {
+            holder = indexes.get(model.getId());
+            if (holder != null && holder.config.equals(model.getConfig())) {
+                return holder.index;
+            }
+            stop(model.getId());
+            IndexHolder started = new IndexHolder(new HashMap<>(model.getConfig()),
+                new BizboxMemberIndex(model.get(USERNAME), model.get(PASSWORD)));
+            long interval = model.get(REFRESH_INTERVAL, 600L);
+            started.refresh = refreshScheduler.scheduleWithFixedDelay(() -> refresh(model, started.index),
+                0L, interval, TimeUnit.SECONDS);
+            indexes.put(model.getId(), started);
+            return started.index;
+        }
+    }
+
+    private void refresh(ComponentModel model, BizboxMemberIndex index) {
+        try {
+            //resolved on every refresh, the realm's Bizbox execution may have been edited since
+            BizboxExternalApi api = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(model.getParentId());
+                return realm != null ? authenticatorFactory.getBackend(realm).getApi() : null;
+            });
+            if (api == null) {
+                log.warn("Bizbox member index of {} not refreshed, its realm does not exist", model.getName());
+                return;
+            }
+            index.refresh(api);
+        } catch (Exception e) {
+            //keep the schedule alive, the previous snapshot stays in use
+            log.warn("Failed to refresh Bizbox member index of {}: {}", model.getName(), e.getMessage());
+        }
+    }
+
+    private void stop(String componentId) {
+        IndexHolder holder = indexes.remove(componentId);
+        if (holder != null && holder.refresh != null) {
+            holder.refresh.cancel(false);
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "Read-only Bizbox members, looked up in memory instead of being imported into the Keycloak database";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        return ProviderConfigurationBuilder.create()
+            .property().name(USERNAME).label("Bizbox username").type(ProviderConfigProperty.STRING_TYPE)
+                .helpText("Bizbox account used to read the members").add()
+            .property().name(PASSWORD).label("Bizbox password").type(ProviderConfigProperty.PASSWORD).secret(true)
+                .helpText("Password of the Bizbox account").add()
+            .property().name(REFRESH_INTERVAL).label("Index refresh interval").type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue("600").helpText("Seconds between refreshes of the in-memory member index").add()
+            .build();
+    }
+}
@@ -0,0 +1,151 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.StorageId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Copies a Bizbox {@link User} onto a Keycloak {@link UserModel}, writing only what changed.
+ * A fingerprint of the synced values is stored on the user, so a steady-state login compares one attribute
+ * and writes nothing. When the fingerprint differs, each field is compared and only changed fields, missing roles and missing
+ * group memberships are written. The roles and groups mapped by the last sync are kept in {@link #MAPPED_ROLES} and
+ * {@link #MAPPED_GROUPS}; those no longer mapped are revoked and left, roles and groups granted otherwise are not touched.
+ * Manual edits in Keycloak are therefore only overwritten once the Bizbox values change. Whether the user is enabled is
+ * left to the administrators, a user disabled in Keycloak stays disabled. Users served by the Bizbox user federation only
+ * get their roles, groups and fingerprint written, their profile values come from its read-only member index.
+ */
+public final class BizboxUserSync {
+
+    public static final String MOBILE_TEL_NUMBER = "mobile-tel-number";
+    public static final String INNER_TEL_NUMBER = "inner-tel-number";
+    public static final String FAX_TEL_NUMBER = "fax-tel-number";
+    public static final String FINGERPRINT = "bizbox-fingerprint";
+    public static final String MAPPED_ROLES = "bizbox-mapped-roles";
+    public static final String MAPPED_GROUPS = "bizbox-mapped-groups";
+
+    private static final Logger log = LoggerFactory.getLogger(BizboxUserSync.class);
+
+    private BizboxUserSync() {
+    }
+
+    /**
+     * @param session session of the login
+     * @param realm realm of the user
+     * @param userModel user to update
+     * @param user values from Bizbox
+     * @param access roles and groups mapped from the Bizbox values
+     * @param realmCache cached role and group lookups
+     * @return true if anything was written
+     */
+    public static boolean sync(KeycloakSession session, RealmModel realm, UserModel userModel, User user,
+                               BizboxRoleMapping.Access access, BizboxRealmCache realmCache) {
+        String fingerprint = fingerprint(user, access);
+        if (fingerprint.equals(userModel.getFirstAttribute(FINGERPRINT))) {
+            return false;
+        }
+        //users of the Bizbox user federation show the values of its member index, which is refreshed on its own
+        if (StorageId.isLocalStorage(userModel)) {
+            if (!Objects.equals(userModel.getFirstName(), user.getFirstName())) {
+                userModel.setFirstName(user.getFirstName());
+            }
+            if (!Objects.equals(userModel.getLastName(), user.getLastName())) {
+                userModel.setLastName(user.getLastName());
+            }
+            if (!Objects.equals(userModel.getEmail(), user.getEmail())) {
+                userModel.setEmail(user.getEmail());
+            }
+            syncAttribute(userModel, MOBILE_TEL_NUMBER, user.getMobileTelephoneNumber());
+            syncAttribute(userModel, INNER_TEL_NUMBER, user.getInnerTelephoneNumber());
+            syncAttribute(userModel, FAX_TEL_NUMBER, user.getFaxTelephoneNumber());
+        }
+        Set<String> previousRoles = userModel.getAttributeStream(MAPPED_ROLES).collect(Collectors.toSet());
+        for (String roleName : previousRoles) {
+            RoleModel role = access.getRoles().contains(roleName) ? null : realmCache.role(realm, roleName);
+            if (role != null && userModel.hasDirectRole(role)) {
+                userModel.deleteRoleMapping(role);
+            }
+        }
+        for (String roleName : access.getRoles()) {
+            RoleModel role = realmCache.role(realm, roleName);
+            if (role == null) {
+                log.warn("Role {} does not exist in realm {}", roleName, realm.getName());
+            } else if (!userModel.hasDirectRole(role)) {
+                userModel.grantRole(role);
+            }
+        }
+        Set<String> previousGroups = userModel.getAttributeStream(MAPPED_GROUPS).collect(Collectors.toSet());
+        for (String groupPath : previousGroups) {
+            GroupModel group = access.getGroups().contains(groupPath) ? null : realmCache.group(session, realm, groupPath);
+            if (group != null && userModel.isMemberOf(group)) {
+                userModel.leaveGroup(group);
+            }
+        }
+        for (String groupPath : access.getGroups()) {
+            GroupModel group = realmCache.group(session, realm, groupPath);
+            if (group == null) {
+                log.warn("Group {} does not exist in realm {}", groupPath, realm.getName());
+            } else if (!userModel.isMemberOf(group)) {
+                userModel.joinGroup(group);
+            }
+        }
+        if (!previousRoles.equals(access.getRoles())) {
+            userModel.setAttribute(MAPPED_ROLES, new ArrayList<>(access.getRoles()));
+        }
+        if (!previousGroups.equals(access.getGroups())) {
+            userModel.setAttribute(MAPPED_GROUPS, new ArrayList<>(access.getGroups()));
+        }
+        userModel.setSingleAttribute(FINGERPRINT, fingerprint);
+        return true;
+    }
+
+    private static void syncAttribute(UserModel userModel, String name, String value) {
+        if (!Objects.equals(userModel.getFirstAttribute(name), value)) {
+            userModel.setSingleAttribute(name, value);
+        }
+    }
+
+    /**
+     * @return digest of every value {@link #sync} writes
+     */
+    static String fingerprint(User user, BizboxRoleMapping.Access access) {
+        StringBuilder values = new StringBuilder(128);
+        append(values, user.getUsername());
+        append(values, user.getFirstName());
+        append(values, user.getLastName());
+        append(values, user.getEmail());
+        append(values, user.getMobileTelephoneNumber());
+        append(values, user.getInnerTelephoneNumber());
+        append(values, user.getFaxTelephoneNumber());
+        for (String role : access.getRoles()) {
+            append(values, "role:" + role);
+        }
+        for (String group : access.getGroups()) {
+            append(values, "group:" + group);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(values.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void append(StringBuilder values, String value) {
+        values.append(value == null ? "\u0001" : value).append('\u0000');
+    }
+}
@@ -0,0 +1,195 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warm-up of the backends while Keycloak starts, so the first logins after a restart do not pay for name resolution,
+ * connection and TLS setup, JCE provider lookup, Jackson introspection and the JIT.
+ * The endpoints are resolved, the local work of a login runs on synthetic payloads, and several connections to every
+ * endpoint are opened at once and left in the pool. The backends are warmed up in parallel on a bounded number of
+ * threads, and the whole warm-up is bounded by one timeout; whatever did not finish in time is left to the first logins.
+ */
+public class BizboxWarmup {
+
+    /**
+     * Threads warming backends up at once, and threads sending the requests of one backend.
+     */
+    private static final int MAX_THREADS = 8;
+
+    private final Logger log = LoggerFactory.getLogger(BizboxWarmup.class);
+
+    private final int connections;
+    private final int iterations;
+    private final String path;
+    private final Duration timeout;
+
+    /**
+     * @param connections connections opened to every endpoint
+     * @param iterations synthetic logins run locally
+     * @param path path requested to open a connection, answered without a Bizbox login
+     * @param timeout time the warm-up of all backends may take
+     */
+    public BizboxWarmup(int connections, int iterations, String path, Duration timeout) {
+        this.connections = Math.max(0, connections);
+        this.iterations = Math.max(0, iterations);
+        this.path = path;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Warms the backends up in parallel and returns once all of them finished or the timeout passed.
+     */
+    public void run(Collection<BizboxBackend> backends) {
+        if (backends.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        ExecutorService executor = executor(Math.min(backends.size(), MAX_THREADS), "bizbox-warm-up-");
+        List<Future<?>> warmUps = new ArrayList<>(backends.size());
+        for (BizboxBackend backend : backends) {
+            warmUps.add(executor.submit(() -> run(backend, deadline)));
+        }
+        try {
+            for (Future<?> warmUp : warmUps) {
+                warmUp.get(remaining(deadline), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            log.warn("Bizbox warm-up did not finish within {}ms", timeout.toMillis());
+        } catch (ExecutionException e) {
+            log.warn("Bizbox warm-up failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void run(BizboxBackend backend, long deadline) {
+        long start = System.nanoTime();
+        List<BizboxEndpoints.Endpoint> endpoints = backend.getApi().getEndpoints().getEndpoints();
+        for (BizboxEndpoints.Endpoint endpoint : endpoints) {
+            resolve(backend, endpoint);
+        }
+        int synthetic = 0;
+        try {
+            synthetic = backend.getApi().warmUp(iterations, deadline);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Bizbox {} local warm-up failed", backend.getName(), e);
+        }
+        int opened = openConnections(backend, endpoints, deadline);
+        log.info("Bizbox {} warmed up in {}ms: {} of {} synthetic logins, {} of {} connections opened", backend.getName(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), synthetic, iterations, opened, connections * endpoints.size());
+    }
+
+    private void resolve(BizboxBackend backend, BizboxEndpoints.Endpoint endpoint) {
+        try {
+            String host = URI.create(endpoint.getUrl()).getHost();
+            if (host != null) {
+                //fills the JVM name cache the connections are resolved from
+                InetAddress.getAllByName(host);
+            }
+        } catch (UnknownHostException | IllegalArgumentException e) {
+            log.warn("Bizbox {} endpoint {} cannot be resolved: {}", backend.getName(), endpoint.getUrl(), e.getMessage());
+        }
+    }
+
+    /**
+     * Sends one request per connection to every endpoint. Each response is held, keeping its connection leased so no
+     * request reuses the connection of another, until every request was answered or the deadline passed, then released
+     * back to the pool. The requests are sent by at most {@link #MAX_THREADS} threads, which do not wait for the others.
+     * @return number of connections opened
+     */
+    private int openConnections(BizboxBackend backend, List<BizboxEndpoints.Endpoint> endpoints, long deadline) {
+        int total = connections * endpoints.size();
+        if (total == 0 || remaining(deadline) == 0) {
+            return 0;
+        }
+        CloseableHttpClient httpClient = backend.getHttpClient();
+        Queue<CloseableHttpResponse> held = new ConcurrentLinkedQueue<>();
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicInteger opened = new AtomicInteger();
+        ExecutorService executor = executor(Math.min(total, MAX_THREADS), "bizbox-warm-up-" + backend.getName() + "-");
+        List<Future<?>> requests = new ArrayList<>(total);
+        for (BizboxEndpoints.Endpoint endpoint : endpoints) {
+            for (int i = 0; i < connections; i++) {
+                requests.add(executor.submit(() -> {
+                    try {
+                        CloseableHttpResponse response = httpClient.execute(new HttpGet(endpoint.getUrl() + path));
+                        opened.incrementAndGet();
+                        held.add(response);
+                        //answered after the warm-up gave up waiting, nobody else releases it
+                        if (finished.get() && held.remove(response)) {
+                            release(response);
+                        }
+                    } catch (IOException e) {
+                        log.debug("Bizbox warm-up request to {} failed: {}", endpoint.getUrl(), e.getMessage());
+                    }
+                }));
+            }
+        }
+        try {
+            for (Future<?> request : requests) {
+                request.get(remaining(deadline), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            log.warn("Bizbox {} warm-up did not open its connections within {}ms", backend.getName(), timeout.toMillis());
+        } catch (ExecutionException e) {
+            log.warn("Bizbox {} warm-up failed", backend.getName(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            finished.set(true);
+            CloseableHttpResponse response;
+            while ((response = held.poll()) != null) {
+                release(response);
+            }
+        }
+        return opened.get();
+    }
+
+    private void release(CloseableHttpResponse response) {
+        try (CloseableHttpResponse closing = response) {
+            EntityUtils.consume(closing.getEntity());
+        } catch (IOException e) {
+            log.debug("Bizbox warm-up response not released: {}", e.getMessage());
+        }
+    }
+
+    private static ExecutorService executor(int threads, String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
@@ -15,6 +15,11 @@ public class User {
     private String mobileTelephoneNumber;
     private String innerTelephoneNumber;
     private String faxTelephoneNumber;
+    private String companySeq;
+    private String departmentSeq;
+    private String dutyCode;
+    private String positionCode;
+    private Integer depth;
     private List<String> roles;
     public User() {
     }
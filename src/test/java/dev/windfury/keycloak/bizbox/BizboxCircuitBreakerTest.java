@@ -0,0 +1,117 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+class BizboxCircuitBreakerTest {
+
+    private static final long FAST = Duration.ofMillis(10).toNanos();
+    private static final long SLOW = Duration.ofSeconds(5).toNanos();
+
+    private static BizboxCircuitBreaker breaker(Duration openDuration) {
+        return new BizboxCircuitBreaker("test", new BizboxCircuitBreaker.Settings(50, 50, Duration.ofSeconds(1), 10, 4,
+            openDuration, 2));
+    }
+
+    private static void call(BizboxCircuitBreaker breaker, boolean failed, long durationNanos) {
+        Assertions.assertTrue(breaker.tryAcquire());
+        breaker.onResult(failed, durationNanos);
+    }
+
+    @Test
+    void staysClosedBelowTheMinimumCalls() {
+        BizboxCircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+        for (int i = 0; i < 3; i++) {
+            call(breaker, true, FAST);
+        }
+        Assertions.assertEquals(BizboxCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void opensAtTheFailureRateAndFailsFast() {
+        BizboxCircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+        call(breaker, false, FAST);
+        call(breaker, false, FAST);
+        call(breaker, true, FAST);
+        Assertions.assertEquals(BizboxCircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, true, FAST);
+        Assertions.assertEquals(BizboxCircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void opensAtTheSlowCallRate() {
+        BizboxCircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+        call(breaker, false, FAST);
+        call(breaker, false, FAST);
+        call(breaker, false, SLOW);
+        call(breaker, false, SLOW);
+        Assertions.assertEquals(BizboxCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void evaluatesOnlyTheSlidingWindow() {
+        BizboxCircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+        call(breaker, true, FAST);
+        for (int i = 0; i < 10; i++) {
+            call(breaker, false, FAST);
+        }
+        //the first failure left the window of ten calls, four more stay below half of it
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true, FAST);
+        }
+        Assertions.assertEquals(BizboxCircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, true, FAST);
+        Assertions.assertEquals(BizboxCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void closesWhenAllProbesSucceed() {
+        BizboxCircuitBreaker breaker = breaker(Duration.ZERO);
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true, FAST);
+        }
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertEquals(BizboxCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertFalse(breaker.tryAcquire());
+        breaker.onResult(false, FAST);
+        Assertions.assertEquals(BizboxCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onResult(false, FAST);
+        Assertions.assertEquals(BizboxCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void checkingPermissionTakesNoProbe() {
+        BizboxCircuitBreaker breaker = breaker(Duration.ZERO);
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true, FAST);
+        }
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertTrue(breaker.isCallPermitted());
+        }
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertFalse(breaker.isCallPermitted());
+        Assertions.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void reopensOnAFailedProbe() {
+        BizboxCircuitBreaker breaker = breaker(Duration.ofMillis(50));
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true, FAST);
+        }
+        Assertions.assertFalse(breaker.tryAcquire());
+        long waitUntil = System.currentTimeMillis() + 1000;
+        while (!breaker.tryAcquire()) {
+            Assertions.assertTrue(System.currentTimeMillis() < waitUntil, "breaker did not half-open");
+            Thread.onSpinWait();
+        }
+        breaker.onResult(true, FAST);
+        Assertions.assertEquals(BizboxCircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertFalse(breaker.tryAcquire());
+    }
+}
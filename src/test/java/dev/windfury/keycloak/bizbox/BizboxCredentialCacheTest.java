@@ -0,0 +1,131 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.infinispan.Cache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class BizboxCredentialCacheTest {
+
+    private static final int ITERATIONS = 1000;
+
+    private static BizboxCredentialCache cache() {
+        return new BizboxCredentialCache(Duration.ofMinutes(5), Duration.ofSeconds(30), 100, ITERATIONS);
+    }
+
+    private static User user(String username) {
+        return new User(username, "Alice", "Kim", "alice@example.com", null, null, null, List.of("employee"));
+    }
+
+    /**
+     * Cluster cache over a map, standing in for the Infinispan cache every node shares.
+     */
+    @SuppressWarnings("unchecked")
+    private static BizboxClusterCache clusterCache(Map<String, String> entries) {
+        Cache<String, String> cache = (Cache<String, String>) Proxy.newProxyInstance(BizboxCredentialCacheTest.class.getClassLoader(),
+            new Class<?>[]{Cache.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "get":
+                        return entries.get((String) args[0]);
+                    case "put":
+                        return entries.put((String) args[0], (String) args[1]);
+                    case "putIfAbsent":
+                        return entries.putIfAbsent((String) args[0], (String) args[1]);
+                    case "remove":
+                        return entries.remove((String) args[0]);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        return new BizboxClusterCache(cache);
+    }
+
+    @Test
+    void hitsOnlyWithTheSamePassword() {
+        BizboxCredentialCache cache = cache();
+        User user = user("alice");
+        cache.putVerified("alice", cache.verifier("alice", "pw"), user);
+        Assertions.assertSame(user, cache.getVerified("alice", cache.verifier("alice", "pw")));
+        Assertions.assertNull(cache.getVerified("alice", cache.verifier("alice", "other")));
+        Assertions.assertNull(cache.getVerified("bob", cache.verifier("bob", "pw")));
+    }
+
+    @Test
+    void verifiersAreSaltedPerUsername() {
+        BizboxCredentialCache cache = cache();
+        Assertions.assertEquals(cache.verifier("alice", "pw"), cache.verifier("alice", "pw"));
+        Assertions.assertNotEquals(cache.verifier("alice", "pw"), cache.verifier("bob", "pw"));
+        Assertions.assertNotEquals(cache.verifier("alice", "pw"), cache().verifier("alice", "pw"));
+    }
+
+    @Test
+    void keysUsernamesIgnoringCase() {
+        BizboxCredentialCache cache = cache();
+        Assertions.assertEquals(cache.verifier("alice", "pw"), cache.verifier("ALICE", "pw"));
+        User user = user("alice");
+        cache.putVerified("Alice", cache.verifier("Alice", "pw"), user);
+        Assertions.assertSame(user, cache.getVerified("ALICE", cache.verifier("ALICE", "pw")));
+        cache.putRejected("Bob", cache.verifier("Bob", "bad"));
+        Assertions.assertTrue(cache.isRejected("bob", cache.verifier("bob", "bad")));
+        cache.invalidate("aLiCe");
+        Assertions.assertNull(cache.getVerified("alice", cache.verifier("alice", "pw")));
+    }
+
+    @Test
+    void remembersRejectionsForTheNegativeTtl() throws InterruptedException {
+        BizboxCredentialCache cache = new BizboxCredentialCache(Duration.ofMinutes(5), Duration.ofMillis(50), 100, ITERATIONS);
+        String bad = cache.verifier("alice", "bad");
+        cache.putRejected("alice", bad);
+        Assertions.assertTrue(cache.isRejected("alice", bad));
+        Assertions.assertFalse(cache.isRejected("alice", cache.verifier("alice", "pw")));
+        Thread.sleep(200);
+        Assertions.assertFalse(cache.isRejected("alice", bad));
+    }
+
+    @Test
+    void nodesSharingTheClusterCacheAdoptTheFirstSalt() {
+        Map<String, String> entries = new ConcurrentHashMap<>();
+        BizboxCredentialCache first = cache();
+        BizboxCredentialCache second = cache();
+        Assertions.assertNotEquals(first.verifier("alice", "pw"), second.verifier("alice", "pw"));
+        first.useClusterCache(clusterCache(entries));
+        second.useClusterCache(clusterCache(entries));
+        Assertions.assertEquals(first.verifier("alice", "pw"), second.verifier("alice", "pw"));
+    }
+
+    @Test
+    void clusterEntriesAreSeenByEveryNode() {
+        Map<String, String> entries = new ConcurrentHashMap<>();
+        BizboxCredentialCache first = cache();
+        BizboxCredentialCache second = cache();
+        first.useClusterCache(clusterCache(entries));
+        second.useClusterCache(clusterCache(entries));
+
+        first.putVerified("Alice", first.verifier("Alice", "pw"), user("alice"));
+        User cached = second.getVerified("alice", second.verifier("alice", "pw"));
+        Assertions.assertNotNull(cached);
+        Assertions.assertEquals("alice", cached.getUsername());
+        Assertions.assertEquals(List.of("employee"), cached.getRoles());
+        Assertions.assertNull(second.getVerified("alice", second.verifier("alice", "other")));
+
+        first.putRejected("bob", first.verifier("bob", "bad"));
+        Assertions.assertTrue(second.isRejected("BOB", second.verifier("BOB", "bad")));
+
+        second.invalidate("alice");
+        Assertions.assertNull(first.getVerified("alice", first.verifier("alice", "pw")));
+    }
+
+    @Test
+    void switchingToTheClusterCacheDropsMemoryEntries() {
+        BizboxCredentialCache cache = cache();
+        cache.putVerified("alice", cache.verifier("alice", "pw"), user("alice"));
+        cache.useClusterCache(clusterCache(new ConcurrentHashMap<>()));
+        Assertions.assertNull(cache.getVerified("alice", cache.verifier("alice", "pw")));
+    }
+}
@@ -0,0 +1,178 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.credential.CredentialInput;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.ModelException;
+import org.keycloak.models.SubjectCredentialManager;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+class BizboxCredentialMigrationTest {
+
+    /**
+     * Stand-in user with an in-memory credential store keeping passwords as they are.
+     */
+    private static final class TestUser {
+        private final Map<String, String> attributes = new HashMap<>();
+        private final Map<String, CredentialModel> credentials = new LinkedHashMap<>();
+        private boolean enabled = true;
+        private String rejectedPassword;
+        private final UserModel model;
+
+        private TestUser() {
+            Map<String, Function<Object[], Object>> credentialMethods = new HashMap<>();
+            credentialMethods.put("isValid", args -> {
+                //the varargs overload is a default method, the proxy sees either form
+                List<?> inputs = args[0] instanceof List ? (List<?>) args[0] : Arrays.asList((Object[]) args[0]);
+                return inputs.stream().allMatch(input -> credentials.values().stream().anyMatch(credential ->
+                    credential.getType().equals(((CredentialInput) input).getType())
+                        && credential.getSecretData().equals(((CredentialInput) input).getChallengeResponse())));
+            });
+            credentialMethods.put("updateCredential", args -> {
+                CredentialInput input = (CredentialInput) args[0];
+                if (input.getChallengeResponse().equals(rejectedPassword)) {
+                    throw new ModelException("invalidPasswordMinLengthMessage");
+                }
+                credentials.values().removeIf(credential -> credential.getType().equals(input.getType()));
+                add(input.getType(), input.getChallengeResponse());
+                return true;
+            });
+            credentialMethods.put("updateStoredCredential", args -> credentials.put(((CredentialModel) args[0]).getId(), (CredentialModel) args[0]));
+            credentialMethods.put("removeStoredCredentialById", args -> credentials.remove((String) args[0]) != null);
+            credentialMethods.put("getStoredCredentialsByTypeStream", args -> credentials.values().stream()
+                .filter(credential -> credential.getType().equals(args[0])));
+            SubjectCredentialManager credentialManager = proxy(SubjectCredentialManager.class, credentialMethods);
+
+            Map<String, Function<Object[], Object>> userMethods = new HashMap<>();
+            userMethods.put("getUsername", args -> "alice");
+            userMethods.put("isEnabled", args -> enabled);
+            userMethods.put("getFirstAttribute", args -> attributes.get((String) args[0]));
+            userMethods.put("setSingleAttribute", args -> attributes.put((String) args[0], (String) args[1]));
+            userMethods.put("removeAttribute", args -> attributes.remove((String) args[0]));
+            userMethods.put("credentialManager", args -> credentialManager);
+            this.model = proxy(UserModel.class, userMethods);
+        }
+
+        private CredentialModel add(String type, String secret) {
+            CredentialModel credential = new CredentialModel();
+            credential.setId(UUID.randomUUID().toString());
+            credential.setType(type);
+            credential.setCreatedDate(System.currentTimeMillis());
+            credential.setSecretData(secret);
+            credentials.put(credential.getId(), credential);
+            return credential;
+        }
+
+        private CredentialModel password() {
+            return credentials.values().stream()
+                .filter(credential -> PasswordCredentialModel.TYPE.equals(credential.getType()))
+                .findFirst().orElse(null);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return type.cast(Proxy.newProxyInstance(BizboxCredentialMigrationTest.class.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> {
+                Function<Object[], Object> answer = methods.get(method.getName());
+                if (answer == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                Object result = answer.apply(args != null ? args : new Object[0]);
+                return method.getReturnType() == void.class ? null : result;
+            }));
+    }
+
+    private final BizboxCredentialMigration migration = new BizboxCredentialMigration("backend-a", Duration.ofDays(1));
+
+    @Test
+    void migratedPasswordVerifiesLocally() {
+        TestUser user = new TestUser();
+        migration.migrate(user.model, "pw");
+        Assertions.assertEquals("backend-a", user.attributes.get(BizboxCredentialMigration.MIGRATED));
+        Assertions.assertTrue(migration.verify(user.model, "pw"));
+        Assertions.assertFalse(migration.verify(user.model, "other"));
+    }
+
+    @Test
+    void disabledUsersAreNotVerified() {
+        TestUser user = new TestUser();
+        migration.migrate(user.model, "pw");
+        user.enabled = false;
+        Assertions.assertFalse(migration.verify(user.model, "pw"));
+    }
+
+    @Test
+    void migrationOfAnotherBackendIsIgnored() {
+        TestUser user = new TestUser();
+        new BizboxCredentialMigration("backend-b", Duration.ofDays(1)).migrate(user.model, "pw");
+        Assertions.assertFalse(migration.verify(user.model, "pw"));
+        Assertions.assertFalse(migration.isExpired(user.model));
+    }
+
+    @Test
+    void ownKeycloakPasswordsAreLeftAlone() {
+        TestUser user = new TestUser();
+        CredentialModel own = user.add(PasswordCredentialModel.TYPE, "keycloak");
+        migration.migrate(user.model, "pw");
+        Assertions.assertNull(user.attributes.get(BizboxCredentialMigration.MIGRATED));
+        Assertions.assertSame(own, user.password());
+        migration.forget(user.model);
+        Assertions.assertSame(own, user.password());
+    }
+
+    @Test
+    void passwordsRejectedByThePolicyAreNotMigrated() {
+        TestUser user = new TestUser();
+        user.rejectedPassword = "pw";
+        migration.migrate(user.model, "pw");
+        Assertions.assertNull(user.attributes.get(BizboxCredentialMigration.MIGRATED));
+        Assertions.assertNull(user.password());
+    }
+
+    @Test
+    void samePasswordIsRestampedAndAChangedOneReplaced() {
+        TestUser user = new TestUser();
+        migration.migrate(user.model, "pw");
+        CredentialModel migrated = user.password();
+        migrated.setCreatedDate(0L);
+        Assertions.assertTrue(migration.isExpired(user.model));
+        migration.migrate(user.model, "pw");
+        Assertions.assertSame(migrated, user.password());
+        Assertions.assertFalse(migration.isExpired(user.model));
+        migration.migrate(user.model, "changed");
+        Assertions.assertTrue(migration.verify(user.model, "changed"));
+        Assertions.assertFalse(migration.verify(user.model, "pw"));
+    }
+
+    @Test
+    void expiredPasswordsAreNotVerified() {
+        TestUser user = new TestUser();
+        migration.migrate(user.model, "pw");
+        user.password().setCreatedDate(System.currentTimeMillis() - Duration.ofDays(2).toMillis());
+        Assertions.assertTrue(migration.isExpired(user.model));
+        Assertions.assertFalse(migration.verify(user.model, "pw"));
+    }
+
+    @Test
+    void forgetsOnlyARejectedMigratedPassword() {
+        TestUser user = new TestUser();
+        migration.migrate(user.model, "pw");
+        migration.forgetIfMatches(user.model, "other");
+        Assertions.assertNotNull(user.password());
+        migration.forgetIfMatches(user.model, "pw");
+        Assertions.assertNull(user.password());
+        Assertions.assertNull(user.attributes.get(BizboxCredentialMigration.MIGRATED));
+    }
+}
@@ -0,0 +1,43 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class BizboxEndpointsTest {
+
+    private static final List<String> URLS = List.of("http://gw1", "http://gw2/", "http://gw3");
+
+    @Test
+    void roundRobinSkipsUnavailableNodes() {
+        BizboxEndpoints endpoints = new BizboxEndpoints(URLS, BizboxEndpoints.Policy.ROUND_ROBIN);
+        BizboxEndpoints.Endpoint open = endpoints.getEndpoints().get(1);
+        Assertions.assertEquals("http://gw2", open.getUrl());
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertNotSame(open, endpoints.choose(null, endpoint -> endpoint != open));
+        }
+    }
+
+    @Test
+    void choosesNothingWhenNoNodeIsAvailable() {
+        BizboxEndpoints endpoints = new BizboxEndpoints(URLS, BizboxEndpoints.Policy.LEAST_IN_FLIGHT);
+        Assertions.assertNull(endpoints.choose(null, endpoint -> false));
+        BizboxEndpoints.Endpoint last = endpoints.getEndpoints().get(2);
+        Assertions.assertNull(endpoints.choose(last, endpoint -> endpoint == last));
+
+        BizboxEndpoints single = new BizboxEndpoints(List.of("http://gw1"), BizboxEndpoints.Policy.ROUND_ROBIN);
+        Assertions.assertNull(single.choose(null, endpoint -> false));
+        Assertions.assertSame(single.getEndpoints().get(0), single.choose(single.getEndpoints().get(0)));
+    }
+
+    @Test
+    void tokensCarryTheirNode() {
+        BizboxEndpoints endpoints = new BizboxEndpoints(URLS, BizboxEndpoints.Policy.ROUND_ROBIN);
+        BizboxEndpoints.Endpoint second = endpoints.getEndpoints().get(1);
+        String token = endpoints.token(second, "ABC");
+        Assertions.assertSame(second, endpoints.endpointOf(token));
+        Assertions.assertEquals("ABC", endpoints.sessionIdOf(token));
+        Assertions.assertSame(endpoints.getEndpoints().get(0), endpoints.endpointOf("ABC"));
+    }
+}
@@ -0,0 +1,73 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+class BizboxLoginFormScannerTest {
+
+    private static BizboxLoginFormScanner.Result scan(String page) throws IOException {
+        return BizboxLoginFormScanner.scan(new StringReader(page));
+    }
+
+    @Test
+    void readsTheSpringSecurityForm() throws IOException {
+        BizboxLoginFormScanner.Result result = scan("<html><body onload=\"document.f.submit()\">"
+            + "<form name=\"f\" method=\"post\" action=\"/gw/j_spring_security_check\">"
+            + "<input type=\"hidden\" name=\"j_username\" value=\"alice\"/>"
+            + "<input type='hidden' name='j_password' value='s3cr&gt;t'/>"
+            + "</form></body></html>");
+        Assertions.assertTrue(result.isSpringSecurityForm());
+        Assertions.assertEquals("/gw/j_spring_security_check", result.getFormAction());
+        Assertions.assertEquals("alice", result.getUsername());
+        Assertions.assertEquals("s3cr&gt;t", result.getPassword());
+    }
+
+    @Test
+    void matchesTagsAndAttributesIgnoringCase() throws IOException {
+        BizboxLoginFormScanner.Result result = scan("<FORM ACTION=/gw/j_spring_security_check METHOD=post>"
+            + "<INPUT TYPE=hidden NAME=J_USERNAME VALUE=alice><Input Name=\"j_password\" Value=\"pw\"></FORM>");
+        Assertions.assertTrue(result.isSpringSecurityForm());
+        Assertions.assertEquals("/gw/j_spring_security_check", result.getFormAction());
+        Assertions.assertEquals("alice", result.getUsername());
+        Assertions.assertEquals("pw", result.getPassword());
+    }
+
+    @Test
+    void keepsQuotedGreaterThanSignsInsideTheTag() throws IOException {
+        BizboxLoginFormScanner.Result result = scan("<script>if (a < b && c > d) {}</script>"
+            + "<form data-x=\"a>b\" action=\"/gw/j_spring_security_check\">"
+            + "<input name=\"j_username\" value=\"x>y\"><input name=\"j_password\"></form>");
+        Assertions.assertEquals("/gw/j_spring_security_check", result.getFormAction());
+        Assertions.assertEquals("x>y", result.getUsername());
+        Assertions.assertEquals("", result.getPassword());
+    }
+
+    @Test
+    void findsFieldsSplitAcrossReads() throws IOException {
+        StringBuilder page = new StringBuilder("<html><head>");
+        while (page.length() < 4090) {
+            page.append("<meta name=\"padding\" content=\"0123456789\">");
+        }
+        page.append("<form action=\"/gw/j_spring_security_check\"><input name=\"j_username\" value=\"alice\">"
+            + "<input name=\"j_password\" value=\"pw\"></form>");
+        BizboxLoginFormScanner.Result result = scan(page.toString());
+        Assertions.assertTrue(result.isSpringSecurityForm());
+        Assertions.assertEquals("alice", result.getUsername());
+        Assertions.assertEquals("pw", result.getPassword());
+    }
+
+    @Test
+    void rejectedLoginPageIsNotTheSpringSecurityForm() throws IOException {
+        BizboxLoginFormScanner.Result result = scan("<html><script>alert(\"wrong password\");</script>"
+            + "<form name=\"loginForm\" method=\"post\" action=\"/gw/uat/uia/actionLogin.do\">"
+            + "<input type=\"text\" name=\"id\" value=\"\"><input type=\"password\" name=\"password\" value=\"\">"
+            + "</form></html>");
+        Assertions.assertFalse(result.isSpringSecurityForm());
+        Assertions.assertEquals("/gw/uat/uia/actionLogin.do", result.getFormAction());
+        Assertions.assertEquals("", result.getUsername());
+        Assertions.assertEquals("", result.getPassword());
+    }
+}
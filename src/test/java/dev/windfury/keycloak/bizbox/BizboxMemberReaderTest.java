@@ -0,0 +1,100 @@
+package dev.windfury.keycloak.bizbox;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import dev.windfury.keycloak.bizbox.dto.UserMemberDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class BizboxMemberReaderTest {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final String RESPONSE = "{\"startCount\":0,\"meta\":{\"list\":[{\"loginId\":\"nested\"}]},\"list\":["
+        + "{\"loginId\":\"bob\",\"name\":\"Bob\",\"orgPath\":{\"compSeq\":\"9\"}},"
+        + "{\"loginId\":\"Alice\",\"name\":\"홍길동\",\"emailAddr\":\"alice\",\"emailDomain\":\"example.com\","
+        + "\"mobileTelNum\":\"010-1234-5678\",\"telNum\":\"02-1234-5678\",\"faxNum\":\"02-1234-5679\","
+        + "\"compSeq\":\"1000\",\"deptSeq\":\"1210\",\"dutyCode\":\"D03\",\"positionCode\":\"P05\",\"depth\":3,"
+        + "\"deptSeqs\":[\"1000\",\"1210\"],\"unknown\":{\"loginId\":\"ignored\"}},"
+        + "{\"loginId\":\"carol\",\"depth\":null}"
+        + "],\"totalCount\":3}";
+
+    private static UserMemberDTO find(String json, String loginId) throws IOException {
+        try (JsonParser parser = JSON.createParser(json)) {
+            return BizboxMemberReader.findMember(parser, loginId);
+        }
+    }
+
+    @Test
+    void findsTheMemberIgnoringCase() throws IOException {
+        UserMemberDTO member = find(RESPONSE, "alice");
+        Assertions.assertNotNull(member);
+        Assertions.assertEquals("Alice", member.getLoginId());
+        Assertions.assertEquals("홍길동", member.getName());
+        Assertions.assertEquals("alice", member.getEmailAddr());
+        Assertions.assertEquals("example.com", member.getEmailDomain());
+        Assertions.assertEquals("010-1234-5678", member.getMobileTelephoneNumber());
+        Assertions.assertEquals("02-1234-5678", member.getTelephoneNumber());
+        Assertions.assertEquals("02-1234-5679", member.getFaxNumber());
+        Assertions.assertEquals("1000", member.getCompanySeq());
+        Assertions.assertEquals("1210", member.getDepartmentSeq());
+        Assertions.assertEquals("D03", member.getDutyCode());
+        Assertions.assertEquals("P05", member.getPositionCode());
+        Assertions.assertEquals(3, member.getDepth());
+    }
+
+    @Test
+    void bindsFieldsBeforeALateLoginId() throws IOException {
+        UserMemberDTO member = find("{\"list\":[{\"name\":\"Bob\",\"depth\":1,\"loginId\":\"bob\"},"
+            + "{\"name\":\"Alice\",\"orgPath\":{\"loginId\":\"x\"},\"depth\":2,\"loginId\":\"alice\",\"dutyCode\":\"D01\"}]}", "alice");
+        Assertions.assertNotNull(member);
+        Assertions.assertEquals("alice", member.getLoginId());
+        Assertions.assertEquals("Alice", member.getName());
+        Assertions.assertEquals(2, member.getDepth());
+        Assertions.assertEquals("D01", member.getDutyCode());
+    }
+
+    @Test
+    void skipsMembersWithoutLoginId() throws IOException {
+        Assertions.assertNull(find("{\"list\":[{\"name\":\"Alice\"}]}", "alice"));
+        UserMemberDTO member = find("{\"list\":[{\"name\":\"Nobody\"},{\"loginId\":\"alice\"}]}", "alice");
+        Assertions.assertNotNull(member);
+        Assertions.assertNull(member.getName());
+    }
+
+    @Test
+    void returnsTheFirstOfDuplicateLoginIds() throws IOException {
+        UserMemberDTO member = find("{\"list\":[{\"loginId\":\"alice\",\"name\":\"First\"},{\"loginId\":\"ALICE\",\"name\":\"Second\"}]}", "alice");
+        Assertions.assertNotNull(member);
+        Assertions.assertEquals("First", member.getName());
+    }
+
+    @Test
+    void readsNullDepth() throws IOException {
+        UserMemberDTO member = find(RESPONSE, "carol");
+        Assertions.assertNotNull(member);
+        Assertions.assertNull(member.getDepth());
+    }
+
+    @Test
+    void returnsNullForMissingMembersAndOtherPayloads() throws IOException {
+        Assertions.assertNull(find(RESPONSE, "nested"));
+        Assertions.assertNull(find(RESPONSE, "ignored"));
+        Assertions.assertNull(find("{\"list\":[]}", "alice"));
+        Assertions.assertNull(find("{\"resultCode\":\"-1\"}", "alice"));
+        Assertions.assertNull(find("[]", "alice"));
+    }
+
+    @Test
+    void readsEveryMember() throws IOException {
+        List<String> loginIds = new ArrayList<>();
+        try (JsonParser parser = JSON.createParser(RESPONSE)) {
+            Assertions.assertEquals(3, BizboxMemberReader.forEachMember(parser, member -> loginIds.add(member.getLoginId())));
+        }
+        Assertions.assertEquals(List.of("bob", "Alice", "carol"), loginIds);
+    }
+}
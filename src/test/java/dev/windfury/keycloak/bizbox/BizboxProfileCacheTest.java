@@ -0,0 +1,95 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class BizboxProfileCacheTest {
+
+    private static User user(String username) {
+        return new User(username, null, null, null, null, null, null, Collections.emptyList());
+    }
+
+    /**
+     * Counts how the cache used it.
+     */
+    private static final class CountingLoader implements BizboxProfileCache.ProfileLoader {
+        private final AtomicInteger loads = new AtomicInteger();
+        private final AtomicInteger discards = new AtomicInteger();
+        private final String username;
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        private CountingLoader(String username) {
+            this(username, null, null);
+        }
+
+        private CountingLoader(String username, CountDownLatch started, CountDownLatch release) {
+            this.username = username;
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public User load() throws IOException {
+            loads.incrementAndGet();
+            if (started != null) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while holding the refresh");
+                }
+            }
+            return user(username);
+        }
+
+        @Override
+        public void discard() {
+            discards.incrementAndGet();
+        }
+    }
+
+    @Test
+    void loadsOnAMissAndDiscardsOnAFreshHit() throws IOException {
+        BizboxProfileCache cache = new BizboxProfileCache(Duration.ofMinutes(5), Duration.ofMinutes(1), 100, 1, BizboxMetrics.disabled());
+        CountingLoader miss = new CountingLoader("alice");
+        Assertions.assertEquals("alice", cache.get("Alice", miss).getUsername());
+        CountingLoader hit = new CountingLoader("alice");
+        Assertions.assertEquals("alice", cache.get("alice", hit).getUsername());
+        Assertions.assertEquals(1, miss.loads.get());
+        Assertions.assertEquals(0, hit.loads.get());
+        Assertions.assertEquals(1, hit.discards.get());
+        cache.close();
+    }
+
+    @Test
+    void closeDiscardsQueuedRefreshes() throws Exception {
+        //every hit is due for a refresh, one refresh thread
+        BizboxProfileCache cache = new BizboxProfileCache(Duration.ofMinutes(5), Duration.ofMinutes(5), 100, 1, BizboxMetrics.disabled());
+        cache.get("alice", new CountingLoader("alice"));
+        cache.get("bob", new CountingLoader("bob"));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingLoader running = new CountingLoader("alice", started, release);
+        cache.get("alice", running);
+        Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+        CountingLoader queued = new CountingLoader("bob");
+        cache.get("bob", queued);
+
+        cache.close();
+        release.countDown();
+        Assertions.assertEquals(1, running.loads.get());
+        Assertions.assertEquals(0, queued.loads.get());
+        Assertions.assertEquals(1, queued.discards.get());
+    }
+}
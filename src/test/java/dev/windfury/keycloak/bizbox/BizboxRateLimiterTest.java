@@ -0,0 +1,62 @@
+package dev.windfury.keycloak.bizbox;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One token per minute, so no token is earned back while a test runs.
+ */
+class BizboxRateLimiterTest {
+
+    @Test
+    void admitsTheBurstThenRejectsUntilTheNextToken() {
+        BizboxRateLimiter limiter = new BizboxRateLimiter(3, 1, 100, 1, 1000);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(0, limiter.acquire("alice", null));
+        }
+        long wait = limiter.acquire("alice", null);
+        Assertions.assertTrue(wait > 0);
+        Assertions.assertTrue(wait <= TimeUnit.MINUTES.toNanos(1));
+    }
+
+    @Test
+    void keysUsernamesIgnoringCase() {
+        BizboxRateLimiter limiter = new BizboxRateLimiter(1, 1, 100, 1, 1000);
+        Assertions.assertEquals(0, limiter.acquire("Alice", null));
+        Assertions.assertTrue(limiter.acquire("alice", null) > 0);
+        Assertions.assertEquals(0, limiter.acquire("bob", null));
+    }
+
+    @Test
+    void limitsAnAddressAcrossUsernames() {
+        BizboxRateLimiter limiter = new BizboxRateLimiter(100, 1, 2, 1, 1000);
+        Assertions.assertEquals(0, limiter.acquire("alice", "10.0.0.1"));
+        Assertions.assertEquals(0, limiter.acquire("bob", "10.0.0.1"));
+        Assertions.assertTrue(limiter.acquire("carol", "10.0.0.1") > 0);
+        Assertions.assertEquals(0, limiter.acquire("carol", "10.0.0.2"));
+    }
+
+    @Test
+    void refundGivesBackOneToken() {
+        BizboxRateLimiter limiter = new BizboxRateLimiter(2, 1, 100, 1, 1000);
+        Assertions.assertEquals(0, limiter.acquire("alice", null));
+        Assertions.assertEquals(0, limiter.acquire("alice", null));
+        limiter.refund("alice", null);
+        Assertions.assertEquals(0, limiter.acquire("alice", null));
+        Assertions.assertTrue(limiter.acquire("alice", null) > 0);
+    }
+
+    @Test
+    void refundsDoNotGrowTheBurst() {
+        BizboxRateLimiter limiter = new BizboxRateLimiter(2, 1, 100, 1, 1000);
+        Assertions.assertEquals(0, limiter.acquire("alice", null));
+        for (int i = 0; i < 5; i++) {
+            limiter.refund("alice", null);
+        }
+        Assertions.assertEquals(0, limiter.acquire("alice", null));
+        Assertions.assertEquals(0, limiter.acquire("alice", null));
+        Assertions.assertTrue(limiter.acquire("alice", null) > 0);
+    }
+}
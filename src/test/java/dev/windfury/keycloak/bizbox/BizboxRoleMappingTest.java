@@ -0,0 +1,66 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class BizboxRoleMappingTest {
+
+    private static User user() {
+        User user = new User("alice", "Alice", "Kim", "alice@example.com", null, null, null, Collections.emptyList());
+        user.setCompanySeq("1000");
+        user.setDepartmentSeq("2100");
+        user.setDutyCode("D01");
+        user.setPositionCode("P03");
+        user.setDepth(2);
+        return user;
+    }
+
+    @Test
+    void withoutConfigurationGrantsTheLegacyRole() {
+        BizboxRoleMapping.Access access = BizboxRoleMapping.parse(null).map(user());
+        Assertions.assertEquals(Set.of(BizboxRoleMapping.LEGACY_DEFAULT_ROLE), access.getRoles());
+        Assertions.assertTrue(access.getGroups().isEmpty());
+    }
+
+    @Test
+    void grantsDefaultRolesAndMatchingRules() {
+        BizboxRoleMapping mapping = BizboxRoleMapping.parse(Map.of(
+            BizboxRoleMapping.DEFAULT_ROLES, "employee##offline_access",
+            BizboxRoleMapping.ROLE_MAPPINGS, "dutyCode:D01=manager##dutyCode:D02=director##depth:2=level-2"));
+        Assertions.assertEquals(List.of("employee", "offline_access", "manager", "level-2"),
+            List.copyOf(mapping.map(user()).getRoles()));
+    }
+
+    @Test
+    void wildcardMatchesOnlyPresentValues() {
+        BizboxRoleMapping mapping = BizboxRoleMapping.parse(Map.of(
+            BizboxRoleMapping.DEFAULT_ROLES, "",
+            BizboxRoleMapping.ROLE_MAPPINGS, "positionCode:*=position-{positionCode}"));
+        Assertions.assertEquals(Set.of("position-P03"), mapping.map(user()).getRoles());
+        User withoutPosition = user();
+        withoutPosition.setPositionCode(null);
+        Assertions.assertTrue(mapping.map(withoutPosition).getRoles().isEmpty());
+    }
+
+    @Test
+    void resolvesGroupPathsWithPlaceholders() {
+        BizboxRoleMapping mapping = BizboxRoleMapping.parse(Map.of(
+            BizboxRoleMapping.GROUP_MAPPINGS, "compSeq:1000=/company-a/{deptSeq}##compSeq:*=companies/{compSeq}"));
+        Assertions.assertEquals(List.of("/company-a/2100", "/companies/1000"),
+            List.copyOf(mapping.map(user()).getGroups()));
+    }
+
+    @Test
+    void ignoresInvalidRules() {
+        BizboxRoleMapping mapping = BizboxRoleMapping.parse(Map.of(
+            BizboxRoleMapping.DEFAULT_ROLES, "",
+            BizboxRoleMapping.ROLE_MAPPINGS, "unknown:1=a##dutyCode=b##dutyCode:D01=manager"));
+        Assertions.assertEquals(Set.of("manager"), mapping.map(user()).getRoles());
+    }
+}
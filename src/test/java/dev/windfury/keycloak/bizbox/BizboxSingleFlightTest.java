@@ -0,0 +1,160 @@
+package dev.windfury.keycloak.bizbox;
+
+import dev.windfury.keycloak.bizbox.dto.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class BizboxSingleFlightTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService logins = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+        logins.shutdownNow();
+    }
+
+    private BizboxDeadline deadline(Duration budget) {
+        return BizboxDeadline.start(scheduler, budget);
+    }
+
+    private static User user(String username) {
+        return new User(username, null, null, null, null, null, null, Collections.emptyList());
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while holding the call");
+        }
+    }
+
+    /**
+     * Starts a login whose call blocks until released, and returns once it is running.
+     */
+    private Future<User> lead(BizboxSingleFlight singleFlight, String username, String password, CountDownLatch release,
+                              AtomicInteger calls) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<User> leader = logins.submit(() -> singleFlight.execute(username, password, deadline(Duration.ofSeconds(10)), () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return user(username);
+        }));
+        Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+        return leader;
+    }
+
+    @Test
+    void identicalLoginsShareOneCall() throws Exception {
+        BizboxSingleFlight singleFlight = new BizboxSingleFlight(8);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Future<User> leader = lead(singleFlight, "alice", "pw", release, calls);
+        CompletableFuture<User> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return singleFlight.execute("ALICE", "pw", deadline(Duration.ofSeconds(10)), () -> {
+                    calls.incrementAndGet();
+                    return user("other");
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, logins);
+        //the waiter cannot finish before the leader's call returns
+        Assertions.assertThrows(TimeoutException.class, () -> waiter.get(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        User result = leader.get(10, TimeUnit.SECONDS);
+        Assertions.assertSame(result, waiter.get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    void differentPasswordsDoNotShareACall() throws Exception {
+        BizboxSingleFlight singleFlight = new BizboxSingleFlight(8);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Future<User> leader = lead(singleFlight, "alice", "pw", release, calls);
+        User other = singleFlight.execute("alice", "wrong", deadline(Duration.ofSeconds(10)), () -> {
+            calls.incrementAndGet();
+            return null;
+        });
+        Assertions.assertNull(other);
+        release.countDown();
+        Assertions.assertNotNull(leader.get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    void waitersBeyondTheLimitFailFast() throws Exception {
+        BizboxSingleFlight singleFlight = new BizboxSingleFlight(0);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<User> leader = lead(singleFlight, "alice", "pw", release, new AtomicInteger());
+        Assertions.assertThrows(BizboxUnavailableException.class,
+            () -> singleFlight.execute("alice", "pw", deadline(Duration.ofSeconds(10)), () -> user("alice")));
+        release.countDown();
+        leader.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void waitersAreBoundByTheirOwnDeadline() throws Exception {
+        BizboxSingleFlight singleFlight = new BizboxSingleFlight(8);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<User> leader = lead(singleFlight, "alice", "pw", release, new AtomicInteger());
+        Assertions.assertThrows(BizboxTimeoutException.class,
+            () -> singleFlight.execute("alice", "pw", deadline(Duration.ofMillis(50)), () -> user("alice")));
+        release.countDown();
+        leader.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void waitersReceiveTheFailureOfTheCall() throws Exception {
+        BizboxSingleFlight singleFlight = new BizboxSingleFlight(8);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<User> leader = logins.submit(() -> singleFlight.execute("alice", "pw", deadline(Duration.ofSeconds(10)), () -> {
+            started.countDown();
+            await(release);
+            throw new IOException("Bizbox failed");
+        }));
+        Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<User> waiter = logins.submit(() -> singleFlight.execute("alice", "pw", deadline(Duration.ofSeconds(10)), () -> user("alice")));
+        Thread.sleep(100);
+        release.countDown();
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class, () -> waiter.get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals("Bizbox failed", failure.getCause().getMessage());
+        Assertions.assertThrows(ExecutionException.class, () -> leader.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void laterLoginsCallAgain() throws IOException {
+        BizboxSingleFlight singleFlight = new BizboxSingleFlight(8);
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            singleFlight.execute("alice", "pw", deadline(Duration.ofSeconds(10)), () -> {
+                calls.incrementAndGet();
+                return user("alice");
+            });
+        }
+        Assertions.assertEquals(3, calls.get());
+    }
+}